@@ -0,0 +1,182 @@
+package benchmark;
+
+import model.Order;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import service.orders.InMemoryOrderManager;
+import service.products.InFileProductManager;
+import usecase.ShoppingCartUseCase;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide las operaciones del carrito sobre carritos con distintas cantidades de productos
+ * El catálogo y el caso de uso se comparten entre hilos, cada hilo trabaja sobre su propio carrito
+ * Las variantes "contended" usan todos los núcleos al mismo tiempo
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CartBenchmark {
+
+    @Param({"10000", "1000000"})
+    int catalogSize;
+
+    @Param({"10", "1000"})
+    int cartSize;
+
+    ShoppingCartUseCase shoppingCart;
+    InMemoryOrderManager orders;
+    List<ShoppingCartUseCase.CartLine> addOneToEach;
+    List<ShoppingCartUseCase.CartLine> removeOneFromEach;
+
+    @Setup
+    public void setup() {
+        InFileProductManager catalog = InFileProductManager.isolated(new ByteArrayInputStream(Catalogs.csv(catalogSize)));
+        orders = InMemoryOrderManager.isolated();
+        shoppingCart = new ShoppingCartUseCase(catalog, orders);
+        addOneToEach = new ArrayList<>(cartSize);
+        removeOneFromEach = new ArrayList<>(cartSize);
+        for (int id = 1; id <= cartSize; id++) {
+            addOneToEach.add(new ShoppingCartUseCase.CartLine(id, 1));
+            removeOneFromEach.add(new ShoppingCartUseCase.CartLine(id, -1));
+        }
+    }
+
+    /**
+     * Carrito de cada hilo, se llena con cartSize productos distintos antes de medir
+     */
+
+    @State(Scope.Thread)
+    public static class Cart {
+        String cartId;
+        SplittableRandom random = new SplittableRandom(7);
+
+        @Setup(Level.Trial)
+        public void fill(CartBenchmark benchmark) {
+            cartId = CartBenchmark.newFilledCart(benchmark);
+        }
+
+        int productInCart(CartBenchmark benchmark) {
+            return 1 + random.nextInt(benchmark.cartSize);
+        }
+
+        int productNotInCart(CartBenchmark benchmark) {
+            return benchmark.cartSize + 1 + random.nextInt(benchmark.catalogSize - benchmark.cartSize);
+        }
+    }
+
+    /**
+     * Carritos llenos que se cierran una sola vez cada uno, se llenan antes de cada iteración y no durante la medición
+     * Cada iteración cierra exactamente CHECKOUT_BATCH carritos, al terminarla se eliminan para que no se acumulen
+     */
+
+    static final int CHECKOUT_BATCH = 500;
+
+    @State(Scope.Thread)
+    public static class CheckoutCarts {
+        String[] cartIds = new String[CHECKOUT_BATCH];
+        int next;
+
+        @Setup(Level.Iteration)
+        public void fill(CartBenchmark benchmark) {
+            for (int i = 0; i < cartIds.length; i++) {
+                cartIds[i] = CartBenchmark.newFilledCart(benchmark);
+            }
+            next = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void discard(CartBenchmark benchmark) {
+            for (String cartId : cartIds) {
+                benchmark.orders.removeOrder(cartId);
+            }
+        }
+
+        String next() {
+            return cartIds[next++];
+        }
+    }
+
+    static String newFilledCart(CartBenchmark benchmark) {
+        String cartId = benchmark.shoppingCart.newCart().getId();
+        for (int id = 1; id <= benchmark.cartSize; id++) {
+            benchmark.shoppingCart.addProductToCart(cartId, id, 1);
+        }
+        return cartId;
+    }
+
+    @Benchmark
+    public boolean addAndRemove(Cart cart) {
+        int productId = cart.productNotInCart(this);
+        shoppingCart.addProductToCart(cart.cartId, productId, 1);
+        return shoppingCart.removeProductFromCart(cart.cartId, productId);
+    }
+
+    @Benchmark
+    public boolean updateQuantity(Cart cart) {
+        int productId = cart.productInCart(this);
+        shoppingCart.updateProductInCart(cart.cartId, productId, 1);
+        return shoppingCart.updateProductInCart(cart.cartId, productId, -1);
+    }
+
+    /**
+     * Suma y resta una unidad a cada producto del carrito con dos lotes, comparable con cartSize llamadas a updateQuantity
+     */
+
+    @Benchmark
+    public boolean updateBatch(Cart cart) {
+        shoppingCart.updateProductsInCart(cart.cartId, addOneToEach);
+        return shoppingCart.updateProductsInCart(cart.cartId, removeOneFromEach);
+    }
+
+    @Benchmark
+    public long getTotal(Cart cart) {
+        return shoppingCart.getCart(cart.cartId).getTotal();
+    }
+
+    /**
+     * El resultado es el tiempo de todo el lote, el tiempo de cada checkout es el resultado dividido por CHECKOUT_BATCH
+     */
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5, batchSize = CHECKOUT_BATCH)
+    @Measurement(iterations = 20, batchSize = CHECKOUT_BATCH)
+    public Order checkout(CheckoutCarts carts) {
+        return shoppingCart.closeOrder(carts.next());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean addAndRemoveContended(Cart cart) {
+        return addAndRemove(cart);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean updateQuantityContended(Cart cart) {
+        return updateQuantity(cart);
+    }
+}
@@ -0,0 +1,90 @@
+package benchmark;
+
+import model.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import service.products.InFileProductManager;
+
+import java.io.ByteArrayInputStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide las búsquedas y cambios de stock del catálogo con distintos tamaños
+ * Las variantes "contended" usan todos los núcleos sobre el mismo catálogo
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatalogBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    int catalogSize;
+
+    InFileProductManager catalog;
+
+    @Setup
+    public void setup() {
+        catalog = InFileProductManager.isolated(new ByteArrayInputStream(Catalogs.csv(catalogSize)));
+    }
+
+    /**
+     * Cada hilo elige ids al azar con su propio generador, así el azar no se vuelve un punto de contención
+     */
+
+    @State(Scope.Thread)
+    public static class Ids {
+        SplittableRandom random = new SplittableRandom(42);
+
+        int next(int size) {
+            return 1 + random.nextInt(size);
+        }
+    }
+
+    @Benchmark
+    public Product findProductById(Ids ids) {
+        return catalog.findProductById(ids.next(catalogSize));
+    }
+
+    @Benchmark
+    public void updateStock(Ids ids) {
+        catalog.updateStock(ids.next(catalogSize), Catalogs.STOCK);
+    }
+
+    @Benchmark
+    public boolean reserveAndRelease(Ids ids) {
+        int id = ids.next(catalogSize);
+        boolean reserved = catalog.tryReserve(id, 1);
+        catalog.release(id, 1);
+        return reserved;
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Product findProductByIdContended(Ids ids) {
+        return catalog.findProductById(ids.next(catalogSize));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean reserveAndReleaseContended(Ids ids) {
+        int id = ids.next(catalogSize);
+        boolean reserved = catalog.tryReserve(id, 1);
+        catalog.release(id, 1);
+        return reserved;
+    }
+}
@@ -0,0 +1,35 @@
+package benchmark;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Genera catálogos sintéticos para las pruebas de rendimiento
+ * Los ids van de 1 a size y el stock es tan grande que las reservas nunca se agotan durante una medición
+ */
+
+final class Catalogs {
+
+    static final int STOCK = 1_000_000_000;
+
+    private Catalogs() {
+    }
+
+    /**
+     * Genera el contenido CSV de un catálogo con el mismo formato de products.csv
+     * @param size Cantidad de productos
+     * @return Bytes del archivo CSV
+     */
+
+    static byte[] csv(int size) {
+        StringBuilder builder = new StringBuilder(size * 64);
+        builder.append("id;name;description;price;stock\n");
+        for (int id = 1; id <= size; id++) {
+            builder.append(id).append(";Producto ").append(id)
+                    .append(";Descripción del producto número ").append(id)
+                    .append(';').append(1_000 + (id % 997) * 150)
+                    .append(';').append(STOCK)
+                    .append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
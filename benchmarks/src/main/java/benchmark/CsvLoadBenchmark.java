@@ -0,0 +1,45 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import service.products.InFileProductManager;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide la carga completa del catálogo desde CSV, incluyendo la construcción del indice por id
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CsvLoadBenchmark {
+
+    @Param({"10000", "1000000"})
+    int rows;
+
+    byte[] csv;
+
+    @Setup
+    public void setup() {
+        csv = Catalogs.csv(rows);
+    }
+
+    @Benchmark
+    public InFileProductManager loadProducts() {
+        return InFileProductManager.isolated(new ByteArrayInputStream(csv));
+    }
+}
@@ -1,12 +1,12 @@
 package application;
 
+import model.MoneyFormat;
 import model.Order;
 import model.OrderItem;
 import model.Product;
 import usecase.ProductsUseCase;
 import usecase.ShoppingCartUseCase;
 
-import java.text.DecimalFormat;
 import java.util.InputMismatchException;
 import java.util.List;
 import java.util.Scanner;
@@ -18,6 +18,10 @@ import java.util.Scanner;
  */
 
 public class StoreApp {
+
+    private static final int SEARCH_RESULTS = 20;
+    private static final int CLOSED_ORDERS_SHOWN = 20;
+
     public static void main(String[] args) {
 
         Scanner sc = new Scanner(System.in);
@@ -32,7 +36,8 @@ public class StoreApp {
             System.out.println("1. Crear un nuevo carrito de compras");
             System.out.println("2. Mostrar la lista de carritos existentes");
             System.out.println("3. Seleccionar un carrito existente");
-            System.out.println("4. Salir");
+            System.out.println("4. Mostrar los pedidos cerrados");
+            System.out.println("5. Salir");
             System.out.print("Seleccione una opción: ");
 
             int option;
@@ -62,6 +67,9 @@ public class StoreApp {
                     }
                     break;
                 case 4:
+                    showClosedOrders(shoppingCartUseCase);
+                    break;
+                case 5:
                     running = false;
                     System.out.println("\nGracias por utilizar el Sistema de Carrito de Compras.");
                     break;
@@ -72,12 +80,8 @@ public class StoreApp {
         sc.close();
     }
 
-    static DecimalFormat df = new DecimalFormat("#,###.00");
-
     private static void createCart(ShoppingCartUseCase shoppingCartUseCase) {
-        List<Order> orders = shoppingCartUseCase.getCarts();
         Order order = shoppingCartUseCase.newCart();
-        orders.add(order);
         System.out.println("Se ha creado un nuevo carrito de compras con ID " + order.getId());
     }
 
@@ -100,6 +104,25 @@ public class StoreApp {
         }
     }
 
+    private static void showClosedOrders(ShoppingCartUseCase shoppingCartUseCase) {
+        int count = shoppingCartUseCase.countClosedOrders();
+        if (count == 0) {
+            System.out.println("No hay pedidos cerrados.");
+            return;
+        }
+
+        System.out.println("--------------------------------------------------");
+        System.out.println("   Últimos pedidos cerrados (" + count + " en total):");
+        System.out.println("--------------------------------------------------");
+        System.out.println("Id del Carrito                       | Fecha               | Total");
+        System.out.println("--------------------------------------------------");
+        int from = Math.max(0, count - CLOSED_ORDERS_SHOWN);
+        for (Order order : shoppingCartUseCase.getClosedOrders(from, CLOSED_ORDERS_SHOWN)) {
+            System.out.println(order.getId() + " | " + order.getDate() + " | $"
+                    + MoneyFormat.format(order.getTotal() - order.getDiscount()));
+        }
+    }
+
     private static void selectCart(ShoppingCartUseCase shoppingCartUseCase, String cartId) {
         if (!shoppingCartUseCase.setCart(cartId) || cartId == null) {
             System.out.println("Debe de seleccionar un carrito existente abierto.");
@@ -195,10 +218,17 @@ public class StoreApp {
         System.out.println("Id | Nombre | Descripción | Precio | Stock ");
         System.out.println("--------------------------------------------------");
 
-        List<Product> products = productsUseCase.getStockProducts();
+        System.out.print("Buscar producto (Enter para ver todos): ");
+        String query = sc.hasNextLine() ? sc.nextLine().trim() : "";
+        List<Product> products = query.isEmpty()
+                ? productsUseCase.getStockProducts()
+                : productsUseCase.searchProducts(query, SEARCH_RESULTS);
         for (Product product : products) {
                 System.out.println(product);
         }
+        if (products.isEmpty()) {
+            System.out.println("No se encontraron productos.");
+        }
 
         try {
             System.out.print("\nIngrese el ID del producto: ");
@@ -258,12 +288,16 @@ public class StoreApp {
             System.out.println(item);
         }
 
-        System.out.println("\nTotal del carrito: $" + df.format(cart.getTotal()));
+        System.out.println("\nTotal del carrito: $" + MoneyFormat.format(cart.getTotal()));
 
+        long discount = shoppingCartUseCase.getDiscount(cart.getId());
         if (cart.getCheckedOut()) {
             System.out.println("Fecha: " + cart.getDate());
-            System.out.println("Descuento: $" + df.format(cart.getDiscount()));
-            System.out.println("Total con descuento: $" + df.format((cart.getTotal() - cart.getDiscount())));
+            System.out.println("Descuento: $" + MoneyFormat.format(discount));
+            System.out.println("Total con descuento: $" + MoneyFormat.format(cart.getTotal() - discount));
+        } else if (discount > 0) {
+            System.out.println("Descuento al pagar: $" + MoneyFormat.format(discount));
+            System.out.println("Total con descuento: $" + MoneyFormat.format(cart.getTotal() - discount));
         }
     }
 
@@ -311,9 +345,9 @@ public class StoreApp {
             for (OrderItem item : orderClosed.getOrderItems()) {
                 System.out.println("- " + item);
             }
-            System.out.println("\nSubtotal: $" + df.format(orderClosed.getTotal()));
-            System.out.println("Descuento: $" + df.format(orderClosed.getDiscount()));
-            System.out.println("Total: $" + df.format((orderClosed.getTotal() - orderClosed.getDiscount())));
+            System.out.println("\nSubtotal: $" + MoneyFormat.format(orderClosed.getTotal()));
+            System.out.println("Descuento: $" + MoneyFormat.format(orderClosed.getDiscount()));
+            System.out.println("Total: $" + MoneyFormat.format(orderClosed.getTotal() - orderClosed.getDiscount()));
         } else {
             System.out.println("No se pudo completar el checkout.");
         }
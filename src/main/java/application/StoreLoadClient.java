@@ -0,0 +1,129 @@
+package application;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cliente de carga para StoreServer, abre muchas sesiones al mismo tiempo en hilos virtuales
+ * Cada sesión crea un carrito, agrega y quita productos al azar y al final lo cancela para devolver el stock
+ *
+ * Uso: StoreLoadClient [puerto] [sesiones] [operacionesPorSesion]
+ */
+
+public class StoreLoadClient {
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : StoreServer.DEFAULT_PORT;
+        int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        List<Integer> productIds = fetchProductIds(port);
+        if (productIds.isEmpty()) {
+            System.err.println("El servidor no tiene productos en el catálogo.");
+            return;
+        }
+
+        AtomicLong completed = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < sessions; i++) {
+                executor.submit(() -> {
+                    try {
+                        runSession(port, productIds, operations, completed, rejected);
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                    }
+                });
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        System.out.println("Sesiones: " + sessions + " (fallidas: " + failed.get() + ")");
+        System.out.println("Operaciones: " + completed.get() + " (rechazadas: " + rejected.get() + ")");
+        System.out.printf("Tiempo: %.2f s, %.0f operaciones/s%n", seconds, completed.get() / seconds);
+    }
+
+    private static void runSession(int port, List<Integer> productIds, int operations,
+                                   AtomicLong completed, AtomicLong rejected) throws IOException {
+        try (Connection connection = new Connection(port)) {
+            String cartId = connection.send("NEW").substring(3);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            for (int i = 0; i < operations; i++) {
+                int productId = productIds.get(random.nextInt(productIds.size()));
+                String response = random.nextInt(4) == 0
+                        ? connection.send("REMOVE " + cartId + " " + productId)
+                        : connection.send("ADD " + cartId + " " + productId + " 1");
+                if (!response.startsWith("OK")) {
+                    rejected.incrementAndGet();
+                }
+                completed.incrementAndGet();
+            }
+
+            connection.send("CANCEL " + cartId);
+            completed.incrementAndGet();
+            connection.send("QUIT");
+        }
+    }
+
+    private static List<Integer> fetchProductIds(int port) throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (Connection connection = new Connection(port)) {
+            String header = connection.send("PRODUCTS");
+            int rows = Integer.parseInt(header.substring(3).trim());
+            for (int i = 0; i < rows; i++) {
+                String row = connection.reader.readLine();
+                ids.add(Integer.parseInt(row.substring(0, row.indexOf(';'))));
+            }
+            connection.send("QUIT");
+        }
+        return ids;
+    }
+
+    /**
+     * Conexión de texto con el servidor, envía una orden y lee la primera línea de la respuesta
+     */
+
+    private static class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final BufferedWriter writer;
+
+        Connection(int port) throws IOException {
+            this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        String send(String command) throws IOException {
+            writer.write(command);
+            writer.write('\n');
+            writer.flush();
+            String response = reader.readLine();
+            if (response == null) {
+                throw new IOException("El servidor cerró la conexión");
+            }
+            return response;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package application;
+
+import model.Order;
+import model.OrderItem;
+import model.Product;
+import service.orders.JournaledOrderManager;
+import service.pricing.PricingEngine;
+import service.products.CatalogView;
+import service.products.InFileProductManager;
+import usecase.ProductsUseCase;
+import usecase.ShoppingCartUseCase;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Servidor que expone los casos de uso del carrito y del catálogo por un socket local
+ * Cada conexión se atiende en su propio hilo virtual, así un solo nodo puede mantener
+ * decenas de miles de clientes conectados sin reservar una pila grande por cada uno
+ *
+ * El protocolo es de texto, una orden por línea y una respuesta que empieza con OK o ERR:
+ * NEW | CARTS [desde límite] | CLOSED desde límite | PRODUCTS [cursor límite] | SEARCH límite palabras... | FILTER mínimo máximo límite [ALL] | SHOW cartId | ADD cartId productId cantidad | REMOVE cartId productId
+ * UPDATE cartId productId cantidad | ADDALL cartId productId cantidad [productId cantidad ...]
+ * UPDATEALL cartId productId cantidad [productId cantidad ...] | CHECKOUT cartId | CANCEL cartId | QUIT
+ * ADDALL y UPDATEALL aplican todas las líneas o ninguna
+ * Las respuestas con varias filas indican en la primera línea cuantas filas vienen a continuación
+ * Los precios, subtotales, totales y descuentos se envían en centavos
+ * CARTS lista los carritos abiertos en el orden en el que se crearon, con desde y límite solo esa página
+ * CLOSED lista los cerrados en el orden en el que se cerraron
+ * SHOW indica en la primera línea las filas, el total y el descuento con las reglas de precios vigentes
+ * PRODUCTS con cursor devuelve los productos con id mayor al cursor ("-" para empezar) y en la primera línea
+ * el cursor de la página siguiente ("-" si no hay más)
+ * FILTER devuelve los productos con stock entre dos precios ordenados por precio, con ALL también los que no tienen stock
+ * Los carritos abiertos que no se usan durante CART_IDLE_TIMEOUT vencen y su stock vuelve al catálogo
+ *
+ * Uso: StoreServer [puerto] [directorioDelRegistro] [catalogo.csv] [reglasDePrecios.txt]
+ * Si se indica un directorio, los carritos y el stock se guardan en el disco y se recuperan al reiniciar
+ * Si se indica un catálogo, se carga desde ese archivo y se vuelve a cargar cada vez que cambia
+ * Si se indican reglas de precios, se cargan desde ese archivo y también se vuelven a cargar cada vez que cambia
+ */
+
+public class StoreServer {
+
+    public static final int DEFAULT_PORT = 7070;
+    public static final Duration CART_IDLE_TIMEOUT = Duration.ofMinutes(30);
+
+    private final ShoppingCartUseCase shoppingCartUseCase;
+    private final ProductsUseCase productsUseCase;
+
+    public StoreServer(ShoppingCartUseCase shoppingCartUseCase, ProductsUseCase productsUseCase) {
+        this.shoppingCartUseCase = shoppingCartUseCase;
+        this.productsUseCase = productsUseCase;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+
+        ShoppingCartUseCase shoppingCartUseCase;
+        if (args.length > 1) {
+            Path directory = Path.of(args[1]);
+            InFileProductManager productRepository = InFileProductManager.getInstance();
+            if (args.length > 2) {
+                Path catalogFile = Path.of(args[2]);
+                productRepository.reload(catalogFile);
+                productRepository.watch(catalogFile);
+            }
+            if (args.length > 3) {
+                Path pricingFile = Path.of(args[3]);
+                PricingEngine.getInstance().reload(pricingFile);
+                PricingEngine.getInstance().watch(pricingFile);
+            }
+            productRepository.persistStock(directory);
+            JournaledOrderManager orderRepository = JournaledOrderManager.open(directory, productRepository);
+            shoppingCartUseCase = new ShoppingCartUseCase(productRepository, orderRepository);
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    orderRepository.close();
+                    productRepository.close();
+                } catch (IOException e) {
+                    System.err.println("Error al cerrar los registros: " + e.getMessage());
+                }
+            }));
+        } else {
+            shoppingCartUseCase = new ShoppingCartUseCase();
+        }
+        shoppingCartUseCase.expireIdleCarts(CART_IDLE_TIMEOUT);
+
+        StoreServer server = new StoreServer(shoppingCartUseCase, new ProductsUseCase());
+        server.serve(port);
+    }
+
+    /**
+     * Acepta conexiones en la interfaz local hasta que se detenga el proceso
+     * @param port Puerto en el que se escuchan las conexiones
+     */
+
+    public void serve(int port) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            System.out.println("Servidor del carrito escuchando en " + serverSocket.getLocalSocketAddress());
+            while (!serverSocket.isClosed()) {
+                Socket socket = serverSocket.accept();
+                executor.submit(() -> handle(socket));
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (line.trim().equalsIgnoreCase("QUIT")) {
+                    writer.write("OK\n");
+                    writer.flush();
+                    return;
+                }
+                execute(line.trim().split("\\s+"), writer);
+                writer.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Error en la conexión: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ejecuta una orden del protocolo y escribe su respuesta
+     * @param args Orden y sus argumentos
+     * @param writer Salida de la conexión
+     */
+
+    private void execute(String[] args, BufferedWriter writer) throws IOException {
+        try {
+            switch (args[0].toUpperCase()) {
+                case "NEW" -> ok(writer, shoppingCartUseCase.newCart().getId());
+                case "CARTS" -> {
+                    if (args.length > 1) {
+                        listCarts(writer, shoppingCartUseCase.getCarts(
+                                Integer.parseInt(argument(args, 1)), Integer.parseInt(argument(args, 2))));
+                    } else {
+                        listCarts(writer, shoppingCartUseCase.getCarts());
+                    }
+                }
+                case "CLOSED" -> listClosedOrders(writer, Integer.parseInt(argument(args, 1)), Integer.parseInt(argument(args, 2)));
+                case "PRODUCTS" -> {
+                    if (args.length > 1) {
+                        listProducts(writer, argument(args, 1), Integer.parseInt(argument(args, 2)));
+                    } else {
+                        listProducts(writer);
+                    }
+                }
+                case "SEARCH" -> searchProducts(writer, Integer.parseInt(argument(args, 1)),
+                        String.join(" ", Arrays.copyOfRange(args, 2, Math.max(2, args.length))));
+                case "FILTER" -> filterProducts(writer, Long.parseLong(argument(args, 1)), Long.parseLong(argument(args, 2)),
+                        !(args.length > 4 && args[4].equalsIgnoreCase("ALL")), Integer.parseInt(argument(args, 3)));
+                case "SHOW" -> showCart(writer, argument(args, 1));
+                case "ADD" -> result(writer, shoppingCartUseCase.addProductToCart(
+                        argument(args, 1), Integer.parseInt(argument(args, 2)), Integer.parseInt(argument(args, 3))));
+                case "REMOVE" -> result(writer, shoppingCartUseCase.removeProductFromCart(
+                        argument(args, 1), Integer.parseInt(argument(args, 2))));
+                case "UPDATE" -> result(writer, shoppingCartUseCase.updateProductInCart(
+                        argument(args, 1), Integer.parseInt(argument(args, 2)), Integer.parseInt(argument(args, 3))));
+                case "ADDALL" -> result(writer, shoppingCartUseCase.addProductsToCart(argument(args, 1), lines(args)));
+                case "UPDATEALL" -> result(writer, shoppingCartUseCase.updateProductsInCart(argument(args, 1), lines(args)));
+                case "CHECKOUT" -> checkout(writer, argument(args, 1));
+                case "CANCEL" -> result(writer, shoppingCartUseCase.cancelOrder(argument(args, 1)));
+                default -> error(writer, "orden desconocida " + args[0]);
+            }
+        } catch (NumberFormatException e) {
+            error(writer, "se esperaba un valor numérico");
+        } catch (IllegalArgumentException e) {
+            error(writer, e.getMessage());
+        } catch (ArithmeticException e) {
+            error(writer, "el importe del carrito es demasiado grande");
+        } catch (UncheckedIOException e) {
+            System.err.println(e.getMessage() + ": " + e.getCause().getMessage());
+            error(writer, "no se pudo guardar el cambio, el carrito no cambió");
+        }
+    }
+
+    private void listCarts(BufferedWriter writer, List<Order> carts) throws IOException {
+        ok(writer, String.valueOf(carts.size()));
+        for (Order cart : carts) {
+            writer.write(cart.getId() + ";" + (cart.getCheckedOut() ? "Cerrado" : "Abierto") + "\n");
+        }
+    }
+
+    private void listClosedOrders(BufferedWriter writer, int from, int limit) throws IOException {
+        List<Order> closed = shoppingCartUseCase.getClosedOrders(from, limit);
+        ok(writer, String.valueOf(closed.size()));
+        for (Order order : closed) {
+            writer.write(order.getId() + ";" + order.getDate() + ";" + order.getTotal() + ";" + order.getDiscount() + "\n");
+        }
+    }
+
+    private void listProducts(BufferedWriter writer) throws IOException {
+        List<Product> products = productsUseCase.getStockProducts();
+        ok(writer, String.valueOf(products.size()));
+        writeProducts(writer, products);
+    }
+
+    private void listProducts(BufferedWriter writer, String cursor, int limit) throws IOException {
+        CatalogView.CursorPage page = productsUseCase.getCatalog()
+                .after(cursor.equals("-") ? null : Integer.valueOf(cursor), limit);
+        ok(writer, page.products().size() + " " + (page.nextCursor() == null ? "-" : page.nextCursor()));
+        writeProducts(writer, page.products());
+    }
+
+    private void searchProducts(BufferedWriter writer, int limit, String query) throws IOException {
+        List<Product> products = productsUseCase.searchProducts(query, limit);
+        ok(writer, String.valueOf(products.size()));
+        writeProducts(writer, products);
+    }
+
+    private void filterProducts(BufferedWriter writer, long minPrice, long maxPrice, boolean inStockOnly, int limit)
+            throws IOException {
+        List<Product> products = productsUseCase.filterProducts(minPrice, maxPrice, inStockOnly, limit);
+        ok(writer, String.valueOf(products.size()));
+        writeProducts(writer, products);
+    }
+
+    private static void writeProducts(BufferedWriter writer, List<Product> products) throws IOException {
+        for (Product product : products) {
+            writer.write(product.getId() + ";" + product.getName() + ";" + product.getPrice() + ";" + product.getStock() + "\n");
+        }
+    }
+
+    private void showCart(BufferedWriter writer, String cartId) throws IOException {
+        Order cart = shoppingCartUseCase.getCart(cartId);
+        if (cart == null) {
+            error(writer, "carrito no encontrado");
+            return;
+        }
+
+        List<OrderItem> items;
+        long total;
+        long discount;
+        synchronized (cart) {
+            items = List.copyOf(cart.getOrderItems());
+            total = cart.getTotal();
+            discount = shoppingCartUseCase.getDiscount(cartId);
+        }
+        ok(writer, items.size() + " " + total + " " + discount);
+        for (OrderItem item : items) {
+            writer.write(item.getProduct().getId() + ";" + item.getQuantity() + ";" + item.getSubtotal() + "\n");
+        }
+    }
+
+    private void checkout(BufferedWriter writer, String cartId) throws IOException {
+        Order closed = shoppingCartUseCase.closeOrder(cartId);
+        if (closed == null) {
+            error(writer, "no se pudo completar el checkout");
+            return;
+        }
+        ok(writer, closed.getTotal() + " " + closed.getDiscount() + " " + closed.getDate());
+    }
+
+    /**
+     * Pares productId cantidad que siguen al id del carrito en ADDALL y UPDATEALL
+     */
+
+    private static List<ShoppingCartUseCase.CartLine> lines(String[] args) {
+        if (args.length < 4 || args.length % 2 != 0) {
+            throw new IllegalArgumentException("se esperaban pares de producto y cantidad para " + args[0]);
+        }
+        List<ShoppingCartUseCase.CartLine> lines = new ArrayList<>((args.length - 2) / 2);
+        for (int i = 2; i < args.length; i += 2) {
+            lines.add(new ShoppingCartUseCase.CartLine(Integer.parseInt(args[i]), Integer.parseInt(args[i + 1])));
+        }
+        return lines;
+    }
+
+    private static String argument(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("faltan argumentos para " + args[0]);
+        }
+        return args[index];
+    }
+
+    private static void result(BufferedWriter writer, boolean success) throws IOException {
+        if (success) {
+            ok(writer, "");
+        } else {
+            error(writer, "operación rechazada");
+        }
+    }
+
+    private static void ok(BufferedWriter writer, String message) throws IOException {
+        writer.write(message.isEmpty() ? "OK\n" : "OK " + message + "\n");
+    }
+
+    private static void error(BufferedWriter writer, String message) throws IOException {
+        writer.write("ERR " + message + "\n");
+    }
+}
@@ -0,0 +1,128 @@
+package model;
+
+/**
+ * Operaciones sobre montos de dinero representados como long en centavos
+ * Trabajar con enteros evita los errores de redondeo de double y no crea objetos en cada operación,
+ * por ejemplo $2.800.000,50 se guarda como 280000050
+ */
+
+public final class Money {
+
+    public static final int SCALE = 100;
+
+    private Money() {
+    }
+
+    /**
+     * Convierte un monto en unidades enteras (pesos) a centavos
+     * @param units Monto en unidades enteras
+     * @return Monto en centavos
+     */
+
+    public static long fromUnits(long units) {
+        return Math.multiplyExact(units, SCALE);
+    }
+
+    /**
+     * Convierte un texto como "2800000" o "85000.5" a centavos sin pasar por double
+     * @param text Monto con punto como separador decimal y máximo dos decimales
+     * @return Monto en centavos
+     * @throws NumberFormatException si el texto no es un monto válido
+     */
+
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Igual que parse(text) pero sobre una parte del texto, evita crear substrings al leer archivos
+     * @param text Texto que contiene el monto
+     * @param start Posición inicial (incluida)
+     * @param end Posición final (excluida)
+     * @return Monto en centavos
+     */
+
+    public static long parse(CharSequence text, int start, int end) {
+        if (start >= end) {
+            throw new NumberFormatException("Monto vacío");
+        }
+
+        boolean negative = text.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        long units = 0;
+        long cents = 0;
+        int decimals = -1;
+        boolean digits = false;
+
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (c >= '0' && c <= '9') {
+                digits = true;
+                if (decimals < 0) {
+                    units = Math.addExact(Math.multiplyExact(units, 10), c - '0');
+                } else if (decimals < 2) {
+                    cents = cents * 10 + (c - '0');
+                    decimals++;
+                } else if (c != '0') {
+                    throw new NumberFormatException("Monto con más de dos decimales: " + text.subSequence(start, end));
+                }
+            } else {
+                throw new NumberFormatException("Monto inválido: " + text.subSequence(start, end));
+            }
+        }
+
+        if (!digits) {
+            throw new NumberFormatException("Monto inválido: " + text.subSequence(start, end));
+        }
+        if (decimals == 1) {
+            cents *= 10;
+        }
+
+        long amount = Math.addExact(fromUnits(units), cents);
+        return negative ? -amount : amount;
+    }
+
+    /**
+     * Convierte un monto de double a centavos, redondeando al centavo más cercano
+     * @param value Monto con decimales
+     * @return Monto en centavos
+     */
+
+    public static long of(double value) {
+        return Math.round(value * SCALE);
+    }
+
+    /**
+     * Convierte un monto en centavos a double, solo se debe usar para mostrarlo
+     * @param amount Monto en centavos
+     * @return Monto con decimales
+     */
+
+    public static double toDouble(long amount) {
+        return (double) amount / SCALE;
+    }
+
+    /**
+     * Multiplica un precio unitario por una cantidad
+     * @param unitPrice Precio unitario en centavos
+     * @param quantity Cantidad de unidades
+     * @return Monto total en centavos
+     */
+
+    public static long times(long unitPrice, int quantity) {
+        return Math.multiplyExact(unitPrice, quantity);
+    }
+
+    /**
+     * Calcula un porcentaje de un monto, expresado en puntos básicos (500 = 5%), redondeando a la mitad hacia arriba
+     * @param amount Monto en centavos
+     * @param basisPoints Porcentaje en puntos básicos
+     * @return Porcentaje del monto en centavos
+     */
+
+    public static long percentOf(long amount, int basisPoints) {
+        return Math.floorDiv(Math.multiplyExact(amount, basisPoints) + 5_000, 10_000);
+    }
+}
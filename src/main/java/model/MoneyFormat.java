@@ -0,0 +1,90 @@
+package model;
+
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Formateador de montos en centavos compartido por toda la aplicación
+ * Produce el mismo texto que DecimalFormat("#,###.00") con los separadores del idioma del sistema,
+ * pero escribe los dígitos directamente, sin estado mutable, por lo que se puede usar desde muchos hilos
+ * y no hace falta guardar un DecimalFormat en cada producto
+ */
+
+public final class MoneyFormat {
+
+    private static final char GROUPING_SEPARATOR;
+    private static final char DECIMAL_SEPARATOR;
+    private static final char MINUS_SIGN;
+
+    static {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+        GROUPING_SEPARATOR = symbols.getGroupingSeparator();
+        DECIMAL_SEPARATOR = symbols.getDecimalSeparator();
+        MINUS_SIGN = symbols.getMinusSign();
+    }
+
+    /**
+     * Espacio suficiente para el long más grande con separadores, decimales y signo
+     */
+
+    private static final int MAX_LENGTH = 32;
+
+    private MoneyFormat() {
+    }
+
+    /**
+     * Da formato a un monto, por ejemplo 280000050 se muestra como 2,800,000.50 (o 2.800.000,50 según el idioma)
+     * @param amount Monto en centavos
+     * @return Monto con formato
+     */
+
+    public static String format(long amount) {
+        char[] buffer = new char[MAX_LENGTH];
+        int start = write(buffer, amount);
+        return new String(buffer, start, MAX_LENGTH - start);
+    }
+
+    /**
+     * Agrega un monto con formato al final de un StringBuilder, sin crear un String intermedio
+     * @param builder StringBuilder donde se escribe el monto
+     * @param amount Monto en centavos
+     * @return El mismo StringBuilder, para encadenar llamadas
+     */
+
+    public static StringBuilder appendTo(StringBuilder builder, long amount) {
+        char[] buffer = new char[MAX_LENGTH];
+        int start = write(buffer, amount);
+        return builder.append(buffer, start, MAX_LENGTH - start);
+    }
+
+    /**
+     * Escribe el monto de derecha a izquierda al final del arreglo
+     * @return Posición donde comienza el texto escrito
+     */
+
+    private static int write(char[] buffer, long amount) {
+        int pos = MAX_LENGTH;
+        // Se trabaja con valores negativos para que Long.MIN_VALUE no se desborde
+        long value = amount > 0 ? -amount : amount;
+
+        long cents = -(value % Money.SCALE);
+        buffer[--pos] = (char) ('0' + cents % 10);
+        buffer[--pos] = (char) ('0' + cents / 10);
+        buffer[--pos] = DECIMAL_SEPARATOR;
+
+        long units = value / Money.SCALE;
+        int digits = 0;
+        while (units != 0) {
+            if (digits > 0 && digits % 3 == 0) {
+                buffer[--pos] = GROUPING_SEPARATOR;
+            }
+            buffer[--pos] = (char) ('0' - units % 10);
+            units /= 10;
+            digits++;
+        }
+
+        if (amount < 0) {
+            buffer[--pos] = MINUS_SIGN;
+        }
+        return pos;
+    }
+}
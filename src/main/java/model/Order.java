@@ -1,41 +1,271 @@
 package model;
 
+import util.IntHashMap;
+
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Carrito de compras, el total se mantiene actualizado cada vez que cambian sus productos
+ * por eso los productos solo se pueden modificar con los métodos de esta clase
+ * Además de la lista de productos guarda un indice por id de producto con la posición de cada uno en la lista,
+ * así encontrar o eliminar un producto no recorre la lista: al eliminarlo el último producto ocupa su lugar
+ *
+ * El estado del carrito solo avanza con compareAndSet: de OPEN pasa a CHECKING_OUT al empezar el checkout y de ahí
+ * a CLOSED, o de OPEN a EXPIRED si vence. Solo un hilo puede ganar cada transición, así un carrito nunca se cierra
+ * dos veces ni vence mientras se está pagando
+ */
 
 public class Order {
     private String id;
     private List<OrderItem> orderItems;
-    private Double total;
-    private Double discount;
+    private final List<OrderItem> orderItemsView;
+    private final IntHashMap<Indexed> itemsByProductId;
+    private volatile long total;
+    private long discount;
     private String date;
-    private Boolean isCheckedOut = false;
+    private final AtomicReference<State> state = new AtomicReference<>(State.OPEN);
+    private volatile long lastTouch = System.currentTimeMillis();
+
+    /**
+     * Producto del carrito junto con su posición en la lista
+     */
+
+    private static final class Indexed {
+        final OrderItem item;
+        int position;
 
-    public Order(String id, List<OrderItem> orderItems, Double total) {
+        Indexed(OrderItem item, int position) {
+            this.item = item;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Estados del carrito, solo OPEN acepta cambios en sus productos
+     */
+
+    public enum State {
+        OPEN,
+        CHECKING_OUT,
+        CLOSED,
+        EXPIRED
+    }
+
+    /**
+     * @param orderItems Lista con los productos iniciales del carrito, el carrito se queda con ella
+     */
+
+    public Order(String id, List<OrderItem> orderItems) {
         this.id = id;
         this.orderItems = orderItems;
-        this.total = total;
+        this.orderItemsView = Collections.unmodifiableList(orderItems);
+        this.itemsByProductId = new IntHashMap<>(Math.max(orderItems.size(), 4));
+        long sum = 0;
+        for (int i = 0; i < orderItems.size(); i++) {
+            OrderItem item = orderItems.get(i);
+            itemsByProductId.put(item.getProduct().getId(), new Indexed(item, i));
+            sum += item.getSubtotal();
+        }
+        this.total = sum;
     }
 
     public String getId() {
         return id;
     }
 
+    /**
+     * @return Vista de solo lectura de los productos del carrito
+     */
+
     public List<OrderItem> getOrderItems() {
-        return orderItems;
+        return orderItemsView;
+    }
+
+    /**
+     * Busca en el carrito el producto con el id indicado
+     * @param productId Id del producto
+     * @return Producto del carrito, o null si el producto no está en el carrito
+     */
+
+    public OrderItem findItem(int productId) {
+        Indexed indexed = itemsByProductId.get(productId);
+        return indexed != null ? indexed.item : null;
+    }
+
+    /**
+     * Agrega un producto nuevo al carrito y suma su subtotal al total
+     * Si el producto ya estaba en el carrito, se reemplaza en la misma posición
+     * @param item Producto que se quiere agregar
+     */
+
+    public void addItem(OrderItem item) {
+        int productId = item.getProduct().getId();
+        Indexed previous = itemsByProductId.get(productId);
+        if (previous != null) {
+            orderItems.set(previous.position, item);
+            itemsByProductId.put(productId, new Indexed(item, previous.position));
+            total -= previous.item.getSubtotal();
+        } else {
+            itemsByProductId.put(productId, new Indexed(item, orderItems.size()));
+            orderItems.add(item);
+        }
+        total += item.getSubtotal();
+    }
+
+    /**
+     * Elimina un producto del carrito y resta su subtotal del total
+     * El último producto de la lista pasa a ocupar su posición, así no se mueve el resto de la lista
+     * @param item Producto que se quiere eliminar
+     * @return True si el producto estaba en el carrito, false en caso contrario
+     */
+
+    public boolean removeItem(OrderItem item) {
+        int productId = item.getProduct().getId();
+        Indexed indexed = itemsByProductId.get(productId);
+        if (indexed == null || indexed.item != item) {
+            return false;
+        }
+        itemsByProductId.remove(productId);
+        OrderItem last = orderItems.remove(orderItems.size() - 1);
+        if (last != item) {
+            orderItems.set(indexed.position, last);
+            itemsByProductId.get(last.getProduct().getId()).position = indexed.position;
+        }
+        total -= item.getSubtotal();
+        return true;
     }
 
-    public Double getTotal() {
-        return orderItems.stream()
-                .mapToDouble(OrderItem::getSubtotal)
-                .sum();
+    /**
+     * Cambia la cantidad de un producto del carrito y ajusta el total con la diferencia de su subtotal
+     * @param item Producto del carrito que se quiere modificar
+     * @param quantity Nueva cantidad del producto
+     * @return True si el producto estaba en el carrito, false en caso contrario sin cambiar nada
+     */
+
+    public boolean setItemQuantity(OrderItem item, int quantity) {
+        Indexed indexed = itemsByProductId.get(item.getProduct().getId());
+        if (indexed == null || indexed.item != item) {
+            return false;
+        }
+        long previous = item.getSubtotal();
+        item.setQuantity(quantity);
+        total += item.getSubtotal() - previous;
+        return true;
+    }
+
+    /**
+     * Elimina todos los productos del carrito
+     */
+
+    public void clearItems() {
+        orderItems.clear();
+        itemsByProductId.clear();
+        total = 0;
+    }
+
+    /**
+     * El total se actualiza con cada cambio de los productos, por eso no tiene que recorrerlos
+     * @return Total del carrito en centavos
+     */
+
+    public long getTotal() {
+        return total;
     }
 
     public Boolean getCheckedOut() {
-        return isCheckedOut;
+        return state.get() == State.CLOSED;
     }
 
+    /**
+     * Cambia el estado sin revisar el anterior, solo se usa al recuperar carritos guardados
+     */
+
     public void setCheckedOut(Boolean checkedOut) {
-        isCheckedOut = checkedOut;
+        state.set(Boolean.TRUE.equals(checkedOut) ? State.CLOSED : State.OPEN);
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return True si el carrito todavía acepta cambios en sus productos
+     */
+
+    public boolean isOpen() {
+        return state.get() == State.OPEN;
+    }
+
+    /**
+     * Empieza el checkout, desde este momento el carrito ya no acepta cambios
+     * @return True si este hilo ganó el checkout, false si el carrito ya no estaba abierto
+     */
+
+    public boolean beginCheckout() {
+        return state.compareAndSet(State.OPEN, State.CHECKING_OUT);
+    }
+
+    /**
+     * Termina el checkout guardando la fecha y el descuento, solo lo llama el hilo que ganó beginCheckout
+     * @param date Fecha del checkout
+     * @param discount Descuento aplicado en centavos
+     */
+
+    public void finishCheckout(String date, long discount) {
+        this.date = date;
+        this.discount = discount;
+        state.compareAndSet(State.CHECKING_OUT, State.CLOSED);
+    }
+
+    /**
+     * Deshace un checkout que no se pudo terminar, el carrito vuelve a aceptar cambios
+     */
+
+    public void abortCheckout() {
+        state.compareAndSet(State.CHECKING_OUT, State.OPEN);
+    }
+
+    /**
+     * Registra que el carrito se acaba de usar, es una sola escritura para que se pueda llamar en cada operación
+     */
+
+    public void touch() {
+        lastTouch = System.currentTimeMillis();
+    }
+
+    /**
+     * @return Momento del último uso del carrito, en milisegundos
+     */
+
+    public long getLastTouch() {
+        return lastTouch;
+    }
+
+    /**
+     * @return True si el carrito venció por inactividad y ya no acepta cambios
+     */
+
+    public boolean isExpired() {
+        return state.get() == State.EXPIRED;
+    }
+
+    /**
+     * Vence el carrito si todavía está abierto
+     * @return True si el carrito venció, false si ya estaba en checkout, cerrado o vencido
+     */
+
+    public boolean expire() {
+        return state.compareAndSet(State.OPEN, State.EXPIRED);
+    }
+
+    /**
+     * Deshace un vencimiento que no se pudo terminar, el carrito vuelve a aceptar cambios
+     */
+
+    public void abortExpire() {
+        state.compareAndSet(State.EXPIRED, State.OPEN);
     }
 
     public String getDate() {
@@ -46,11 +276,15 @@ public class Order {
         this.date = date;
     }
 
-    public Double getDiscount() {
+    /**
+     * @return Descuento aplicado en el checkout, en centavos
+     */
+
+    public long getDiscount() {
         return discount;
     }
 
-    public void setDiscount(Double discount) {
+    public void setDiscount(long discount) {
         this.discount = discount;
     }
 
@@ -1,39 +1,46 @@
 package model;
 
-import java.text.DecimalFormat;
-
 public class OrderItem {
     private Product product;
-    private Integer quantity;
-    private Double subtotal;
-
-    private final DecimalFormat df = new DecimalFormat("#,###.00");
+    private int quantity;
+    private long subtotal;
 
     public OrderItem(Product product, Integer quantity) {
         this.product = product;
         this.quantity = quantity;
-        this.subtotal = product.getPrice() * quantity;
+        this.subtotal = Money.times(product.getPrice(), quantity);
     }
 
     public Product getProduct() {
         return product;
     }
 
-    public Integer getQuantity() {
+    public int getQuantity() {
         return quantity;
     }
 
-    public Double getSubtotal() {
-        return product.getPrice() * quantity;
+    /**
+     * @return Precio unitario por la cantidad, en centavos
+     */
+
+    public long getSubtotal() {
+        return subtotal;
     }
 
-    public void setQuantity(Integer quantity) {
+    /**
+     * Solo el carrito cambia la cantidad, así puede mantener su total actualizado
+     * @param quantity Nueva cantidad del producto
+     */
+
+    void setQuantity(int quantity) {
         this.quantity = quantity;
-        this.subtotal = product.getPrice() * quantity;
+        this.subtotal = Money.times(product.getPrice(), quantity);
     }
 
     @Override
     public String toString() {
-        return product.getName() + " [ " + quantity + " ] - $ " + df.format(subtotal);
+        StringBuilder builder = new StringBuilder(48)
+                .append(product.getName()).append(" [ ").append(quantity).append(" ] - $ ");
+        return MoneyFormat.appendTo(builder, subtotal).toString();
     }
 }
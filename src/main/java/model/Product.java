@@ -1,17 +1,23 @@
 package model;
 
-import java.text.DecimalFormat;
+/**
+ * Producto del catálogo
+ * Algunos repositorios guardan los datos fuera del objeto y usan subclases que los leen al llamar a los getters,
+ * por eso los métodos de esta clase siempre usan los getters en vez de los campos
+ */
 
 public class Product {
     private Integer id;
     private String name;
     private String description;
-    private Double price;
+    private long price;
     private Integer stock;
 
-    private final DecimalFormat df = new DecimalFormat("#,###.00");
+    /**
+     * @param price Precio unitario en centavos, ver {@link Money}
+     */
 
-    public Product(Integer id, String name, String description, Double price, Integer stock) {
+    public Product(Integer id, String name, String description, long price, Integer stock) {
         this.id = id;
         this.name = name;
         this.description = description;
@@ -35,12 +41,16 @@ public class Product {
         return description;
     }
 
-    public Double getPrice() {
+    /**
+     * @return Precio unitario en centavos
+     */
+
+    public long getPrice() {
         return price;
     }
 
     public boolean isAvailable() {
-        return stock > 0;
+        return getStock() > 0;
     }
 
     public void setStock(Integer stock) {
@@ -49,6 +59,11 @@ public class Product {
 
     @Override
     public String toString() {
-        return id + " | " + name + " | " + description + " | " + df.format(price) + " | " + (isAvailable() ? stock : "Out of Stock");
+        int currentStock = getStock();
+        StringBuilder builder = new StringBuilder(64)
+                .append(getId()).append(" | ").append(getName()).append(" | ").append(getDescription()).append(" | ");
+        return MoneyFormat.appendTo(builder, getPrice())
+                .append(" | ").append(currentStock > 0 ? currentStock : "Out of Stock")
+                .toString();
     }
 }
\ No newline at end of file
@@ -3,27 +3,85 @@ package service.orders;
 import model.Order;
 import model.OrderItem;
 import model.Product;
+import service.pricing.PricingEngine;
 
 import java.lang.Math;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class InMemoryOrderManager implements OrderRepository {
 
     /**
-     * Singleton, nos permite que la clase solo se pueda instanciar una vez
-     * Por esto se utiliza una clase privada, para no permitir instanciarla desde fuera
-     * y usar la funcion getInstance() para obtener la instancia de esta clase
+     * Singleton, la aplicación siempre usa la instancia que devuelve la funcion getInstance()
+     * Las pruebas de rendimiento crean almacenes aislados con la funcion isolated()
      */
 
     private static final InMemoryOrderManager INSTANCE = new InMemoryOrderManager();
-    private List<Order> orders;
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+
+    /**
+     * Carritos abiertos indexados por su id, cada uno es además un nodo de una lista doblemente enlazada en el orden
+     * en el que se crearon: agregar uno al final y quitarlo de cualquier lugar no recorre nada, y listarlos en el
+     * orden en el que se agregaron al sistema es solo recorrer la lista
+     * La lista se modifica y se recorre con el candado de openOrders, el mapa se consulta sin candado
+     */
+
+    private final Map<String, OpenOrder> orders = new ConcurrentHashMap<>();
+    private final OpenOrder openOrders = new OpenOrder(null);
+    private int openCount;
+
+    /**
+     * Nodo de la lista de carritos abiertos, openOrders es el nodo centinela: su siguiente es el primer carrito
+     * y su anterior el último
+     */
+
+    private static final class OpenOrder {
+        final Order order;
+        OpenOrder previous = this;
+        OpenOrder next = this;
+
+        OpenOrder(Order order) {
+            this.order = order;
+        }
+    }
+
+    /**
+     * Reglas de precios con las que se calcula el descuento en el checkout
+     */
+
+    private final PricingEngine pricing;
+
+    /**
+     * Historial de los carritos cerrados, el mapa de carritos solo guarda los que siguen abiertos
+     */
+
+    private final OrderArchive archive;
+
+    /**
+     * Constructor privado, esto permite no crear más de una instancia de esta clase
+     */
 
     private InMemoryOrderManager() {
-        orders = new ArrayList<>();
+        this(PricingEngine.getInstance(), new OrderArchive());
+    }
+
+    /**
+     * Crea un almacén de carritos con sus reglas de precios y su historial, lo usan las subclases
+     * @param pricing Reglas de precios
+     * @param archive Historial donde se guardan los carritos cerrados
+     */
+
+    protected InMemoryOrderManager(PricingEngine pricing, OrderArchive archive) {
+        this.pricing = pricing;
+        this.archive = archive;
     }
 
     public static InMemoryOrderManager getInstance() {
@@ -31,17 +89,63 @@ public class InMemoryOrderManager implements OrderRepository {
     }
 
     /**
-     * Obtienes los carritos almacenados en el sistema, si no hay ninguno, se crea uno nuevo
-     * @return Lista con todos los carritos almacenados en el sistema
+     * Crea un almacén de carritos independiente del singleton, la aplicación nunca lo usa, solo las pruebas de rendimiento
+     * @return Almacén nuevo, sin carritos
+     */
+
+    public static InMemoryOrderManager isolated() {
+        return new InMemoryOrderManager();
+    }
+
+    /**
+     * Obtienes los carritos abiertos del sistema, los carritos solo se crean con newOrder
+     * Los carritos cerrados están en el historial, se consultan con getClosedOrders
+     * @return Lista de solo lectura con los carritos abiertos, en el orden en el que se crearon, vacía si no hay ninguno
      */
 
     @Override
     public List<Order> getOrders() {
-        if (orders.isEmpty()) {
-            newOrder();
-            return orders;
+        return storedOrders();
+    }
+
+    /**
+     * Página de los carritos abiertos, solo copia los carritos de la página
+     * @param from Posición del primer carrito, empezando en 0
+     * @param limit Cantidad máxima de carritos
+     * @return Lista de solo lectura con los carritos de la página, en el orden en el que se crearon
+     */
+
+    @Override
+    public List<Order> getOrders(int from, int limit) {
+        synchronized (openOrders) {
+            if (from < 0 || limit <= 0 || from >= openCount) {
+                return List.of();
+            }
+            Order[] page = new Order[Math.min(limit, openCount - from)];
+            OpenOrder node = openOrders.next;
+            for (int i = 0; i < from; i++) {
+                node = node.next;
+            }
+            for (int i = 0; i < page.length; i++, node = node.next) {
+                page[i] = node.order;
+            }
+            return Collections.unmodifiableList(Arrays.asList(page));
+        }
+    }
+
+    /**
+     * Carritos abiertos en el orden en el que se crearon, se copian una sola vez a una lista de solo lectura
+     */
+
+    protected List<Order> storedOrders() {
+        synchronized (openOrders) {
+            Order[] all = new Order[openCount];
+            OpenOrder node = openOrders.next;
+            for (int i = 0; i < all.length; i++, node = node.next) {
+                all[i] = node.order;
+            }
+            return Collections.unmodifiableList(Arrays.asList(all));
         }
-        return orders;
     }
 
     /**
@@ -52,39 +156,112 @@ public class InMemoryOrderManager implements OrderRepository {
 
     @Override
     public Boolean removeOrder(String id) {
-        Order order = getOrderById(id);
-
-        if (order == null) {
+        if (id == null) {
             return false;
         }
-
-        orders.remove(order);
-        return true;
+        return forget(id) || archive.remove(id);
     }
 
     /**
-     * Cierra un carrito y lo devuelve, cambiando el carrito actual por uno nuevo
+     * Cierra un carrito y lo devuelve, por etapas: validar, calcular el precio, confirmar el stock y terminar
+     * El carrito pasa de OPEN a CHECKING_OUT con compareAndSet, si dos hilos cierran el mismo carrito solo uno gana
+     * y el otro recibe null; los carritos distintos se cierran en paralelo, el único candado compartido es el del
+     * historial y solo se toma para copiar el carrito cerrado a sus columnas
      * @param order Carrito que se quiere cerrar
-     * @return Carrito cerrado
+     * @return Carrito cerrado, o null si está vacío o ya no estaba abierto
      */
 
     @Override
     public Order closeOrder(Order order) {
-        if (order == null || order.getOrderItems().isEmpty()) {
+        // Validar: desde aquí ningún cambio nuevo puede empezar sobre el carrito
+        if (order == null || !order.beginCheckout()) {
             return null;
         }
+        // Los cambios se hacen con el candado del carrito, tomarlo espera a que termine el que ya había empezado
+        synchronized (order) {
+            if (order.getOrderItems().isEmpty()) {
+                order.abortCheckout();
+                return null;
+            }
+        }
+
+        // Precio: el carrito ya no puede cambiar, si algo falla antes de terminar el carrito vuelve a quedar abierto
+        String date;
+        long discount;
+        try {
+            discount = discountFor(order);
+            date = LocalDateTime.now().format(DATE_FORMAT);
+            recordClose(order, date, discount);
+        } catch (RuntimeException e) {
+            order.abortCheckout();
+            throw e;
+        }
 
-        double total = order.getTotal();
-        double discount = (total > 100000.0) ? total * 0.05 : 0.0;
+        // Stock y fin: el stock se reservó al agregar cada producto, al cerrar el carrito la reserva queda como venta
+        order.finishCheckout(date, discount);
+        archive(order);
+        return order;
+    }
 
-        String date = LocalDateTime.now()
-                .format(DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss"));
+    /**
+     * Se llama con el precio ya calculado y antes de cerrar el carrito, si lanza una excepción el carrito sigue abierto
+     * @param order Carrito que se está cerrando
+     * @param date Fecha con la que se va a cerrar
+     * @param discount Descuento con el que se va a cerrar
+     */
 
-        order.setDate(date);
-        order.setDiscount(discount);
-        order.setCheckedOut(true);
+    protected void recordClose(Order order, String date, long discount) {
+    }
 
-        return order;
+    /**
+     * Mueve un carrito cerrado de los carritos abiertos al historial
+     * Primero se agrega al historial y después se quita del mapa, así siempre se puede encontrar por su id
+     */
+
+    protected void archive(Order order) {
+        archive.append(order);
+        forget(order.getId());
+    }
+
+    /**
+     * Quita un carrito de los carritos abiertos
+     * @return True si el carrito estaba entre los abiertos
+     */
+
+    private boolean forget(String id) {
+        OpenOrder node = orders.remove(id);
+        if (node == null) {
+            return false;
+        }
+        synchronized (openOrders) {
+            node.previous.next = node.next;
+            node.next.previous = node.previous;
+            openCount--;
+        }
+        return true;
+    }
+
+    /**
+     * Historial de los carritos cerrados
+     */
+
+    protected OrderArchive archive() {
+        return archive;
+    }
+
+    @Override
+    public List<Order> getClosedOrders(int from, int limit) {
+        return archive.page(from, limit);
+    }
+
+    @Override
+    public int countClosedOrders() {
+        return archive.size();
+    }
+
+    @Override
+    public long discountFor(Order order) {
+        return pricing.discountFor(order);
     }
 
     /**
@@ -98,12 +275,12 @@ public class InMemoryOrderManager implements OrderRepository {
         if (order == null || order.getOrderItems().isEmpty()) {
             return false;
         }
-        order.getOrderItems().clear();
+        order.clearItems();
         return true;
     }
 
     /**
-     * Agrega un producto al carrito de compras, si existe en el sistema y tiene stock disponible
+     * Agrega un producto al carrito de compras, el stock ya debe de estar reservado por quien lo llama
      * @param order Carrito al que se quiere agregar el producto
      * @param product producto que se quiere agregar al carrito
      * @param quantity cantidad que se quiere agregar al carrito
@@ -112,18 +289,16 @@ public class InMemoryOrderManager implements OrderRepository {
 
     @Override
     public Boolean addProductToOrder(Order order, Product product, Integer quantity) {
-        if (order == null || product == null || quantity == null || quantity <= 0 || product.getStock() < quantity) {
+        if (order == null || product == null || quantity == null || quantity <= 0) {
             return false;
         }
-        for (OrderItem item : order.getOrderItems()) {
-            if (item.getProduct().getId().equals(product.getId())) {
-                item.setQuantity(item.getQuantity() + quantity);
-                return true;
-            }
+        OrderItem item = order.findItem(product.getId());
+        if (item != null) {
+            return order.setItemQuantity(item, item.getQuantity() + quantity);
         }
 
         OrderItem orderItem = new OrderItem(product, quantity);
-        order.getOrderItems().add(orderItem);
+        order.addItem(orderItem);
         return true;
     }
 
@@ -140,28 +315,42 @@ public class InMemoryOrderManager implements OrderRepository {
             return false;
         }
 
-        for (OrderItem item : order.getOrderItems()) {
-            if (item.getProduct().getId().equals(product.getId())) {
-                order.getOrderItems().remove(item);
-                return true;
-            }
-        }
-        return false;
+        OrderItem item = order.findItem(product.getId());
+        return item != null && order.removeItem(item);
     }
 
     @Override
     public Order getOrderById(String id) {
-        return orders.stream().filter(
-                o -> o.getId().equals(id))
-                .findFirst()
-                .orElse(null);
+        if (id == null) {
+            return null;
+        }
+        OpenOrder node = orders.get(id);
+        return node != null ? node.order : archive.get(id);
     }
 
     @Override
     public Order newOrder() {
-        Order order = new Order(UUID.randomUUID().toString(), new ArrayList<>(), 0.0);
-        orders.add(order);
-        return order;
+        return newOrder(UUID.randomUUID().toString());
+    }
+
+    /**
+     * Crea un carrito vacío con un id conocido, se usa al reconstruir los carritos guardados
+     * @param id Id del carrito
+     * @return Carrito creado, o el que ya existía con ese id
+     */
+
+    public Order newOrder(String id) {
+        return orders.computeIfAbsent(id, key -> {
+            OpenOrder node = new OpenOrder(new Order(key, new ArrayList<>()));
+            synchronized (openOrders) {
+                node.previous = openOrders.previous;
+                node.next = openOrders;
+                openOrders.previous.next = node;
+                openOrders.previous = node;
+                openCount++;
+            }
+            return node;
+        }).order;
     }
 
     /**
@@ -174,25 +363,67 @@ public class InMemoryOrderManager implements OrderRepository {
 
     @Override
     public Boolean updateOrder(Order order, Integer itemId, Integer quantity) {
-        for (OrderItem item : order.getOrderItems()) {
-            if (item.getProduct().getId().equals(itemId) && item.getProduct().getStock() >= quantity) {
-                if (quantity == 0) {
-                    return true;
-                }
+        if (order == null || itemId == null || quantity == null) {
+            return false;
+        }
+        OrderItem item = order.findItem(itemId);
+        if (item == null) {
+            return false;
+        }
+
+        if (quantity == 0) {
+            return true;
+        }
+
+        int newQuantity = item.getQuantity() + quantity;
+        if (newQuantity <= 0) {
+            return order.removeItem(item);
+        }
+        return order.setItemQuantity(item, newQuantity);
+    }
+
+    /**
+     * Deja varios productos del carrito con la cantidad indicada, el stock ya debe de estar reservado por quien lo llama
+     * Se revisan todos los productos antes de cambiar el carrito, así nunca queda aplicada solo una parte
+     * @param order El carrito que se quiere modificar
+     * @param items Productos con la cantidad final de cada uno, 0 para eliminarlo del carrito
+     * @return True si se han actualizado todos los productos, false en caso contrario sin cambiar ninguno
+     */
+
+    @Override
+    public Boolean setOrderItems(Order order, List<OrderItem> items) {
+        if (order == null || !validItems(items)) {
+            return false;
+        }
 
-                if (quantity < 0) {
-                    int newQuantity = item.getQuantity() + quantity;
-                    item.setQuantity(Math.max(0, newQuantity));
-                    if (item.getQuantity() == 0) {
-                        order.getOrderItems().remove(item);
-                    }
-                    return true;
+        for (OrderItem item : items) {
+            OrderItem current = order.findItem(item.getProduct().getId());
+            if (item.getQuantity() == 0) {
+                if (current != null) {
+                    order.removeItem(current);
                 }
+            } else if (current == null) {
+                order.addItem(item);
+            } else {
+                order.setItemQuantity(current, item.getQuantity());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Revisa que todos los productos de un cambio en lote tengan producto y una cantidad final válida
+     */
 
-                item.setQuantity(item.getQuantity() + quantity);
-                return true;
+    static boolean validItems(List<OrderItem> items) {
+        if (items == null) {
+            return false;
+        }
+        for (OrderItem item : items) {
+            if (item == null || item.getProduct() == null || item.getQuantity() < 0) {
+                return false;
             }
         }
-        return false;
+        return true;
     }
-}
\ No newline at end of file
+}
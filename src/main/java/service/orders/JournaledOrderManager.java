@@ -0,0 +1,398 @@
+package service.orders;
+
+import model.Order;
+import model.OrderItem;
+import model.Product;
+import service.pricing.PricingEngine;
+import service.products.ProductRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Almacén de carritos en memoria que además guarda cada cambio en un OrderJournal
+ * Al iniciar reconstruye todos los carritos, abiertos y cerrados, aplicando de nuevo los cambios registrados
+ * Cada operación espera a que su cambio esté en el disco antes de aplicarlo y responder, pero como el registro agrupa
+ * las escrituras de todos los carritos, muchas operaciones simultáneas comparten un mismo fsync
+ *
+ * Cada cierto tiempo un hilo en segundo plano guarda una foto de todos los carritos (OrderSnapshot) y borra los
+ * segmentos del registro que ya quedaron incluidos en ella, así el arranque solo lee la foto y los cambios recientes
+ * La foto se toma carrito por carrito, las operaciones sobre los demás carritos siguen mientras tanto
+ *
+ * Los carritos cerrados pasan a un OrderArchive en el mismo directorio, la foto solo incluye los carritos
+ * cerrados cuyo bloque del historial todavía no se escribió en su propio archivo
+ *
+ * El stock se reserva antes de registrar el cambio del carrito, y el registro guarda el stock del repositorio de
+ * productos antes de cada grupo, así después de una caída todo carrito recuperado tiene su reserva en el stock
+ * recuperado; las devoluciones de stock sí pueden perderse, el stock puede quedar bajo pero nunca se vende dos veces
+ */
+
+public class JournaledOrderManager extends InMemoryOrderManager implements AutoCloseable {
+
+    private static final Duration DEFAULT_SNAPSHOT_INTERVAL = Duration.ofMinutes(1);
+
+    private final Path directory;
+    private final OrderJournal journal;
+    private final ScheduledExecutorService snapshots;
+    private final Object snapshotLock = new Object();
+    private final ReadWriteLock changes = new ReentrantReadWriteLock();
+
+    /**
+     * Abre el registro del directorio indicado y reconstruye los carritos guardados, toma una foto por minuto
+     * @param directory Directorio donde se guardan los segmentos del registro y las fotos
+     * @param productRepository Repositorio con los productos de los carritos guardados
+     * @return Almacén con los carritos recuperados
+     * @throws IOException si no se puede leer o abrir el registro
+     */
+
+    public static JournaledOrderManager open(Path directory, ProductRepository productRepository) throws IOException {
+        return open(directory, productRepository, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Abre el registro del directorio indicado y reconstruye los carritos guardados
+     * Los carritos se reconstruyen cuando el almacén ya está construido y las fotos empiezan después,
+     * así el constructor nunca entrega el almacén a medio construir a otro método ni a otro hilo
+     * @param directory Directorio donde se guardan los segmentos del registro y las fotos
+     * @param productRepository Repositorio con los productos de los carritos guardados
+     * @param snapshotInterval Tiempo entre fotos, solo se toma una foto si hubo cambios desde la anterior
+     * @return Almacén con los carritos recuperados
+     * @throws IOException si no se puede leer o abrir el registro
+     */
+
+    public static JournaledOrderManager open(Path directory, ProductRepository productRepository,
+                                             Duration snapshotInterval) throws IOException {
+        OrderSnapshot.Snapshot snapshot = OrderSnapshot.readLatest(directory);
+        List<OrderJournal.Entry> entries = OrderJournal.readAll(directory, snapshot != null ? snapshot.firstSegment() : 0);
+
+        JournaledOrderManager manager = new JournaledOrderManager(directory, productRepository);
+        try {
+            if (snapshot != null) {
+                manager.restore(snapshot, productRepository);
+            }
+            manager.replay(entries, productRepository);
+        } catch (RuntimeException e) {
+            try {
+                manager.close();
+            } catch (IOException closeError) {
+                e.addSuppressed(closeError);
+            }
+            throw e;
+        }
+        long interval = snapshotInterval.toMillis();
+        manager.snapshots.scheduleWithFixedDelay(manager::snapshotInBackground, interval, interval, TimeUnit.MILLISECONDS);
+        return manager;
+    }
+
+    private JournaledOrderManager(Path directory, ProductRepository productRepository) throws IOException {
+        super(PricingEngine.getInstance(), new OrderArchive(directory));
+        this.directory = directory;
+        this.journal = new OrderJournal(directory, productRepository::flushStock);
+        this.snapshots = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "order-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Cada cambio se registra antes de aplicarlo sobre el carrito en memoria: si no se puede escribir el registro
+     * se lanza UncheckedIOException y el carrito queda igual, así la memoria nunca tiene cambios que el registro no tiene
+     * Registrar y aplicar se hace con el candado de lectura de changes, muchos cambios pueden estar en curso a la vez
+     * pero la foto, que toma el candado de escritura, nunca ve un cambio registrado y todavía no aplicado
+     */
+
+    @Override
+    public Order newOrder() {
+        return applying(() -> {
+            String id = UUID.randomUUID().toString();
+            await(journal.appendNew(id));
+            return newOrder(id);
+        });
+    }
+
+    @Override
+    public Boolean removeOrder(String id) {
+        return applying(() -> {
+            if (id == null || getOrderById(id) == null) {
+                return false;
+            }
+            await(journal.appendRemove(id));
+            return super.removeOrder(id);
+        });
+    }
+
+    /**
+     * El checkout completo, desde que el carrito pasa a CHECKING_OUT hasta que queda en el historial, se hace con
+     * el candado de lectura, así la foto nunca encuentra un carrito en CHECKING_OUT con su cierre ya registrado
+     */
+
+    @Override
+    public Order closeOrder(Order order) {
+        return applying(() -> super.closeOrder(order));
+    }
+
+    /**
+     * El cierre se registra antes de marcar el carrito como cerrado y pasarlo al historial,
+     * si no se puede escribir el carrito sigue abierto y en memoria queda igual que en el registro
+     */
+
+    @Override
+    protected void recordClose(Order order, String date, long discount) {
+        await(journal.appendClose(order.getId(), date, discount));
+    }
+
+    @Override
+    public Boolean cancelOrder(Order order) {
+        return applying(() -> {
+            if (order == null || order.getOrderItems().isEmpty()) {
+                return false;
+            }
+            await(journal.appendClear(order.getId()));
+            return super.cancelOrder(order);
+        });
+    }
+
+    @Override
+    public Boolean addProductToOrder(Order order, Product product, Integer quantity) {
+        return applying(() -> {
+            if (order == null || product == null || quantity == null || quantity <= 0) {
+                return false;
+            }
+            journalItem(order, product.getId(), quantityOf(order, product.getId()) + quantity);
+            return super.addProductToOrder(order, product, quantity);
+        });
+    }
+
+    @Override
+    public Boolean removeProductFromOrder(Order order, Product product) {
+        return applying(() -> {
+            if (order == null || product == null || order.findItem(product.getId()) == null) {
+                return false;
+            }
+            journalItem(order, product.getId(), 0);
+            return super.removeProductFromOrder(order, product);
+        });
+    }
+
+    @Override
+    public Boolean updateOrder(Order order, Integer itemId, Integer quantity) {
+        return applying(() -> {
+            if (order == null || itemId == null || quantity == null || order.findItem(itemId) == null) {
+                return false;
+            }
+            if (quantity != 0) {
+                journalItem(order, itemId, Math.max(0, quantityOf(order, itemId) + quantity));
+            }
+            return super.updateOrder(order, itemId, quantity);
+        });
+    }
+
+    /**
+     * Registra todos los productos del cambio en un solo registro, si el proceso se detiene a mitad de la escritura
+     * al reiniciar no se aplica ninguno
+     */
+
+    @Override
+    public Boolean setOrderItems(Order order, List<OrderItem> items) {
+        return applying(() -> {
+            if (order == null || !validItems(items)) {
+                return false;
+            }
+            int[] productIds = new int[items.size()];
+            int[] quantities = new int[items.size()];
+            for (int i = 0; i < productIds.length; i++) {
+                productIds[i] = items.get(i).getProduct().getId();
+                quantities[i] = items.get(i).getQuantity();
+            }
+            await(journal.appendSetItems(order.getId(), productIds, quantities));
+            return super.setOrderItems(order, items);
+        });
+    }
+
+    /**
+     * Guarda una foto de todos los carritos y borra los segmentos del registro que quedaron incluidos en ella
+     * El registro se rota y los carritos se copian con el candado de escritura de changes: en ese momento ningún
+     * cambio está entre su registro y su aplicación, así todo lo que quedó en los segmentos anteriores ya está en la
+     * copia y todo lo que se escriba después va al segmento nuevo, que se vuelve a aplicar al reiniciar
+     * Mientras se copian los carritos los cambios esperan, el archivo de la foto se escribe después, sin el candado
+     * @return True si se tomó la foto, false si no hubo cambios desde la anterior
+     */
+
+    public boolean snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            long firstSegment;
+            List<OrderSnapshot.OrderState> orders;
+            changes.writeLock().lock();
+            try {
+                if (journal.currentSegmentSize() == 0) {
+                    return false;
+                }
+                firstSegment = journal.rotate();
+                orders = Stream.concat(storedOrders().stream(), archive().unspilled().stream())
+                        .map(OrderSnapshot::capture)
+                        .toList();
+            } finally {
+                changes.writeLock().unlock();
+            }
+            OrderSnapshot.write(directory, firstSegment, orders);
+
+            journal.deleteSegmentsBefore(firstSegment);
+            OrderSnapshot.deleteOlderThan(directory, firstSegment);
+            return true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        snapshots.shutdown();
+        try {
+            snapshots.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        archive().close();
+        journal.close();
+    }
+
+    private void snapshotInBackground() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("No se pudo guardar la foto de los carritos: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Registra y aplica un cambio con el candado de lectura de changes
+     */
+
+    private <T> T applying(Supplier<T> change) {
+        changes.readLock().lock();
+        try {
+            return change.get();
+        } finally {
+            changes.readLock().unlock();
+        }
+    }
+
+    /**
+     * Registra la cantidad con la que va a quedar un producto en el carrito, 0 si se elimina
+     */
+
+    private void journalItem(Order order, int productId, int quantity) {
+        await(journal.appendSetItem(order.getId(), productId, quantity));
+    }
+
+    private static int quantityOf(Order order, int productId) {
+        OrderItem item = order.findItem(productId);
+        return item == null ? 0 : item.getQuantity();
+    }
+
+    /**
+     * Espera a que el cambio esté en el disco
+     * @throws UncheckedIOException si no se pudo escribir el registro
+     */
+
+    private static void await(CompletableFuture<Void> written) {
+        try {
+            written.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw new UncheckedIOException("No se pudo guardar el cambio del carrito", cause);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Carga los carritos de una foto, los productos que ya no existen en el catálogo se ignoran
+     */
+
+    private void restore(OrderSnapshot.Snapshot snapshot, ProductRepository productRepository) {
+        for (OrderSnapshot.OrderState state : snapshot.orders()) {
+            if (archive().contains(state.id())) {
+                continue;
+            }
+            Order order = newOrder(state.id());
+            for (int i = 0; i < state.productIds().length; i++) {
+                Product product = productRepository.findProductById(state.productIds()[i]);
+                if (product != null) {
+                    order.addItem(new OrderItem(product, state.quantities()[i]));
+                }
+            }
+            if (state.checkedOut()) {
+                order.setDate(state.date());
+                order.setDiscount(state.discount());
+                order.setCheckedOut(true);
+                archive(order);
+            }
+        }
+    }
+
+    /**
+     * Aplica los cambios registrados directamente sobre los carritos, sin volver a registrarlos
+     * Los productos que ya no existen en el catálogo se ignoran
+     */
+
+    private void replay(List<OrderJournal.Entry> entries, ProductRepository productRepository) {
+        for (OrderJournal.Entry entry : entries) {
+            if (entry.type() == OrderJournal.NEW) {
+                newOrder(entry.cartId());
+                continue;
+            }
+            if (entry.type() == OrderJournal.REMOVE) {
+                super.removeOrder(entry.cartId());
+                continue;
+            }
+
+            Order order = getOrderById(entry.cartId());
+            if (order == null || order.getCheckedOut()) {
+                continue;
+            }
+            switch (entry.type()) {
+                case OrderJournal.SET_ITEM -> applyItem(order, entry, productRepository);
+                case OrderJournal.CLEAR -> order.clearItems();
+                case OrderJournal.CLOSE -> {
+                    order.setDate(entry.date());
+                    order.setDiscount(entry.discount());
+                    order.setCheckedOut(true);
+                    archive(order);
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    private static void applyItem(Order order, OrderJournal.Entry entry, ProductRepository productRepository) {
+        OrderItem item = order.findItem(entry.productId());
+        if (entry.quantity() <= 0) {
+            if (item != null) {
+                order.removeItem(item);
+            }
+            return;
+        }
+        if (item != null) {
+            order.setItemQuantity(item, entry.quantity());
+            return;
+        }
+        Product product = productRepository.findProductById(entry.productId());
+        if (product != null) {
+            order.addItem(new OrderItem(product, entry.quantity()));
+        }
+    }
+}
@@ -0,0 +1,599 @@
+package service.orders;
+
+import model.Order;
+import model.OrderItem;
+import model.Product;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Historial de los carritos cerrados, separado de los carritos abiertos para que estos sigan siendo pocos
+ * Los carritos se guardan por columnas (ids, fechas, descuentos y los productos de todos los carritos
+ * seguidos) en bloques de CHUNK_ORDERS carritos, solo se agregan al final y no se modifican
+ * Cuando un bloque se llena y hay un directorio, se escribe en segundo plano a un archivo archive-N.bin
+ * y deja de ocupar memoria; en memoria solo queda el índice de ids y los bloques que todavía no están en el disco
+ *
+ * Los carritos se devuelven como copias cerradas de solo lectura, reconstruidas desde las columnas
+ * Al eliminar un carrito archivado solo se marca como eliminado, salvo que sea el último que se agregó
+ * Si su bloque ya está lleno, el bloque se vuelve a escribir con la marca antes de confirmar la eliminación
+ *
+ * Formato de cada archivo: magic, versión, cantidad de carritos y de productos, después cada columna completa
+ * y al final el CRC32 de todo lo anterior
+ */
+
+public final class OrderArchive implements AutoCloseable {
+
+    private static final int MAGIC = 0x4F415243; // "OARC"
+    private static final int VERSION = 1;
+    private static final int CHUNK_ORDERS = 1024;
+
+    private static final String ARCHIVE_PREFIX = "archive-";
+    private static final String ARCHIVE_SUFFIX = ".bin";
+    private static final String TEMPORARY_NAME = "archive.tmp";
+
+    private final Path directory;
+    private final ExecutorService spiller;
+    private final Map<String, Long> rowsById = new ConcurrentHashMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextChunkNumber;
+    private int size;
+    private volatile LoadedChunk lastLoaded;
+
+    /**
+     * Bloque del historial, su contenido está en memoria (chunk) o en su archivo
+     * Las marcas de eliminado y la cantidad de carritos vigentes se mantienen siempre en memoria
+     */
+
+    private static final class Segment {
+        final long number;
+        final boolean[] removed;
+        Chunk chunk;
+        Path file;
+        int live;
+
+        Segment(long number, Chunk chunk, boolean[] removed) {
+            this.number = number;
+            this.chunk = chunk;
+            this.removed = removed;
+        }
+    }
+
+    private record LoadedChunk(long number, Chunk chunk) {
+    }
+
+    /**
+     * Crea un historial que solo vive en memoria
+     */
+
+    public OrderArchive() {
+        this.directory = null;
+        this.spiller = null;
+    }
+
+    /**
+     * Crea un historial que escribe sus bloques llenos en el directorio y carga los que ya había
+     * @param directory Directorio de los archivos del historial
+     * @throws IOException si no se pueden leer los archivos existentes o alguno está dañado
+     */
+
+    public OrderArchive(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        for (Path file : archives(directory)) {
+            Chunk chunk = Chunk.read(file);
+            Segment segment = new Segment(archiveNumber(file), null, Arrays.copyOf(chunk.removed, CHUNK_ORDERS));
+            segment.file = file;
+            index(segment, chunk);
+            nextChunkNumber = segment.number + 1;
+        }
+        this.spiller = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "order-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Agrega un carrito cerrado al final del historial, se ignora si ya estaba archivado
+     * Solo copia el carrito a las columnas, el bloque que se llena se escribe al disco en otro hilo
+     * @param order Carrito cerrado, no debe cambiar mientras se copia
+     */
+
+    public synchronized void append(Order order) {
+        if (rowsById.containsKey(order.getId())) {
+            return;
+        }
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.file != null || segment.chunk.count == CHUNK_ORDERS) {
+            if (segment != null && segment.file == null) {
+                persist(segment);
+            }
+            segment = new Segment(nextChunkNumber++, new Chunk(), new boolean[CHUNK_ORDERS]);
+            segments.add(segment);
+        }
+        int row = segment.chunk.add(order);
+        segment.live++;
+        size++;
+        rowsById.put(order.getId(), location(segments.size() - 1, row));
+    }
+
+    /**
+     * @return True si el carrito está en el historial
+     */
+
+    public boolean contains(String id) {
+        return rowsById.containsKey(id);
+    }
+
+    /**
+     * Busca un carrito archivado
+     * @param id Id del carrito
+     * @return Copia cerrada del carrito, o null si no está en el historial
+     */
+
+    public Order get(String id) {
+        // La fila se busca con el candado: la última fila del bloque en memoria se reutiliza al quitarla y agregar otra
+        int row;
+        Segment segment;
+        synchronized (this) {
+            Long location = rowsById.get(id);
+            if (location == null) {
+                return null;
+            }
+            row = (int) (long) location;
+            segment = segments.get((int) (location >>> 32));
+            if (segment.chunk != null) {
+                return segment.chunk.order(row);
+            }
+        }
+        // Las filas de un bloque ya escrito nunca se reutilizan, se puede leer sin el candado
+        return load(segment).order(row);
+    }
+
+    /**
+     * Elimina un carrito del historial
+     * Si su bloque ya está lleno, el bloque se vuelve a escribir con la marca antes de terminar: la foto de
+     * JournaledOrderManager no incluye los bloques escritos y puede borrar el registro de la eliminación
+     * @param id Id del carrito
+     * @return True si el carrito estaba en el historial
+     * @throws UncheckedIOException Si no se pudo escribir el bloque, el carrito sigue en el historial
+     */
+
+    public boolean remove(String id) {
+        Long location;
+        Segment segment;
+        int row;
+        synchronized (this) {
+            location = rowsById.remove(id);
+            if (location == null) {
+                return false;
+            }
+            int index = (int) (location >>> 32);
+            row = (int) (long) location;
+            segment = segments.get(index);
+            boolean last = index == segments.size() - 1 && segment.file == null;
+            if (last && row == segment.chunk.count - 1) {
+                segment.chunk.removeLast();
+            } else {
+                segment.removed[row] = true;
+            }
+            segment.live--;
+            size--;
+            if (last || spiller == null) {
+                return true;
+            }
+        }
+
+        // La escritura se hace en el hilo del historial, así nunca hay dos escrituras a la vez sobre el archivo temporal
+        try {
+            spiller.submit(() -> {
+                write(segment);
+                return null;
+            }).get();
+            return true;
+        } catch (ExecutionException | InterruptedException | RejectedExecutionException e) {
+            synchronized (this) {
+                segment.removed[row] = false;
+                segment.live++;
+                size++;
+                rowsById.put(id, location);
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            throw new UncheckedIOException("No se pudo eliminar el carrito del historial",
+                    cause instanceof IOException io ? io : new IOException(cause));
+        }
+    }
+
+    /**
+     * @return Cantidad de carritos en el historial
+     */
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Carritos del historial en el orden en el que se cerraron, solo se leen los bloques de la página
+     * @param from Posición del primer carrito, empezando en 0
+     * @param limit Cantidad máxima de carritos
+     * @return Copias cerradas de los carritos
+     */
+
+    public List<Order> page(int from, int limit) {
+        if (from < 0 || limit <= 0) {
+            throw new IllegalArgumentException("la posición y el límite deben ser positivos");
+        }
+        List<Order> page = new ArrayList<>(Math.min(limit, CHUNK_ORDERS));
+        int skip = from;
+        for (int index = 0; page.size() < limit; index++) {
+            Segment segment;
+            boolean[] removed;
+            synchronized (this) {
+                if (index >= segments.size()) {
+                    break;
+                }
+                segment = segments.get(index);
+                if (skip >= segment.live) {
+                    skip -= segment.live;
+                    continue;
+                }
+                if (segment.chunk != null) {
+                    skip = segment.chunk.collect(segment.removed, skip, limit, page);
+                    continue;
+                }
+                removed = segment.removed.clone();
+            }
+            skip = load(segment).collect(removed, skip, limit, page);
+        }
+        return page;
+    }
+
+    /**
+     * Carritos que todavía no están escritos en un archivo del historial, la foto de los carritos los incluye
+     * para que no se pierdan al borrar los segmentos del registro
+     */
+
+    synchronized List<Order> unspilled() {
+        List<Order> orders = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.chunk != null && segment.file == null) {
+                segment.chunk.collect(segment.removed, 0, Integer.MAX_VALUE, orders);
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Espera a que terminen las escrituras pendientes, el bloque que no está lleno sigue solo en memoria
+     * y en la foto de los carritos
+     */
+
+    @Override
+    public void close() {
+        if (spiller == null) {
+            return;
+        }
+        spiller.shutdown();
+        try {
+            spiller.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void index(Segment segment, Chunk chunk) {
+        int index = segments.size();
+        segments.add(segment);
+        for (int row = 0; row < chunk.count; row++) {
+            if (!segment.removed[row]) {
+                rowsById.put(chunk.ids[row], location(index, row));
+                segment.live++;
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Programa la escritura de un bloque lleno, hasta que termine el bloque se sigue leyendo de la memoria
+     */
+
+    private void persist(Segment segment) {
+        if (spiller == null) {
+            return;
+        }
+        spiller.execute(() -> {
+            try {
+                write(segment);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("No se pudo escribir el bloque " + segment.number + " del historial: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Escribe un bloque con sus marcas de eliminado actuales, si ya estaba en el disco se lee y se vuelve a escribir
+     * Solo se llama desde el hilo del historial
+     */
+
+    private void write(Segment segment) throws IOException {
+        Chunk chunk;
+        boolean[] removed;
+        synchronized (this) {
+            chunk = segment.chunk;
+            removed = segment.removed.clone();
+        }
+        if (chunk == null) {
+            chunk = load(segment);
+        }
+        Path file = chunk.write(directory, archivePath(directory, segment.number), removed);
+        synchronized (this) {
+            segment.file = file;
+            segment.chunk = null;
+        }
+    }
+
+    private Chunk load(Segment segment) {
+        LoadedChunk loaded = lastLoaded;
+        if (loaded != null && loaded.number() == segment.number) {
+            return loaded.chunk();
+        }
+        try {
+            Chunk chunk = Chunk.read(segment.file);
+            lastLoaded = new LoadedChunk(segment.number, chunk);
+            return chunk;
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo leer el historial de carritos", e);
+        }
+    }
+
+    private static long location(int index, int row) {
+        return ((long) index << 32) | row;
+    }
+
+    private static Path archivePath(Path directory, long number) {
+        return directory.resolve(String.format("%s%012d%s", ARCHIVE_PREFIX, number, ARCHIVE_SUFFIX));
+    }
+
+    private static List<Path> archives(Path directory) throws IOException {
+        List<Path> archives = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, ARCHIVE_PREFIX + "*" + ARCHIVE_SUFFIX)) {
+            for (Path path : stream) {
+                archives.add(path);
+            }
+        }
+        archives.sort(null);
+        return archives;
+    }
+
+    private static long archiveNumber(Path archive) {
+        String name = archive.getFileName().toString();
+        return Long.parseLong(name.substring(ARCHIVE_PREFIX.length(), name.length() - ARCHIVE_SUFFIX.length()));
+    }
+
+    /**
+     * Columnas de un bloque, los productos del carrito de la fila r están entre itemEnd[r - 1] e itemEnd[r]
+     * Solo cambian mientras el bloque es el último del historial y siempre con el candado del historial
+     */
+
+    private static final class Chunk {
+        int count;
+        final String[] ids = new String[CHUNK_ORDERS];
+        final String[] dates = new String[CHUNK_ORDERS];
+        final long[] discounts = new long[CHUNK_ORDERS];
+        final int[] itemEnd = new int[CHUNK_ORDERS];
+        boolean[] removed = new boolean[0];
+
+        int itemCount;
+        int[] productIds = new int[CHUNK_ORDERS];
+        int[] quantities = new int[CHUNK_ORDERS];
+        long[] prices = new long[CHUNK_ORDERS];
+        String[] names = new String[CHUNK_ORDERS];
+
+        int add(Order order) {
+            List<OrderItem> items = order.getOrderItems();
+            ensureItemCapacity(itemCount + items.size());
+            for (int i = 0; i < items.size(); i++) {
+                Product product = items.get(i).getProduct();
+                productIds[itemCount] = product.getId();
+                quantities[itemCount] = items.get(i).getQuantity();
+                prices[itemCount] = product.getPrice();
+                names[itemCount] = product.getName();
+                itemCount++;
+            }
+            int row = count++;
+            ids[row] = order.getId();
+            dates[row] = order.getDate();
+            discounts[row] = order.getDiscount();
+            itemEnd[row] = itemCount;
+            return row;
+        }
+
+        void removeLast() {
+            int row = --count;
+            int start = row == 0 ? 0 : itemEnd[row - 1];
+            Arrays.fill(names, start, itemCount, null);
+            itemCount = start;
+            ids[row] = null;
+            dates[row] = null;
+        }
+
+        Order order(int row) {
+            int start = row == 0 ? 0 : itemEnd[row - 1];
+            List<OrderItem> items = new ArrayList<>(itemEnd[row] - start);
+            for (int i = start; i < itemEnd[row]; i++) {
+                items.add(new OrderItem(new Product(productIds[i], names[i], "", prices[i], 0), quantities[i]));
+            }
+            Order order = new Order(ids[row], items);
+            order.setDate(dates[row]);
+            order.setDiscount(discounts[row]);
+            order.setCheckedOut(true);
+            return order;
+        }
+
+        /**
+         * Agrega a la página los carritos vigentes del bloque, saltando los primeros skip
+         * @return Cuántos carritos faltan por saltar después de este bloque
+         */
+
+        int collect(boolean[] removed, int skip, int limit, List<Order> page) {
+            for (int row = 0; row < count && page.size() < limit; row++) {
+                if (removed[row]) {
+                    continue;
+                }
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    page.add(order(row));
+                }
+            }
+            return skip;
+        }
+
+        private void ensureItemCapacity(int capacity) {
+            if (capacity <= productIds.length) {
+                return;
+            }
+            int grown = Math.max(capacity, productIds.length * 2);
+            productIds = Arrays.copyOf(productIds, grown);
+            quantities = Arrays.copyOf(quantities, grown);
+            prices = Arrays.copyOf(prices, grown);
+            names = Arrays.copyOf(names, grown);
+        }
+
+        /**
+         * Escribe el bloque columna por columna, primero en un archivo temporal y después lo mueve a su nombre
+         */
+
+        Path write(Path directory, Path file, boolean[] removed) throws IOException {
+            Path temporary = directory.resolve(TEMPORARY_NAME);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream stream = Channels.newOutputStream(channel);
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(stream, 1 << 16), new CRC32());
+                DataOutputStream out = new DataOutputStream(checked);
+
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                out.writeInt(itemCount);
+                for (int row = 0; row < count; row++) {
+                    out.writeUTF(ids[row]);
+                }
+                for (int row = 0; row < count; row++) {
+                    out.writeUTF(dates[row] == null ? "" : dates[row]);
+                }
+                for (int row = 0; row < count; row++) {
+                    out.writeLong(discounts[row]);
+                }
+                for (int row = 0; row < count; row++) {
+                    out.writeInt(itemEnd[row]);
+                }
+                for (int row = 0; row < count; row++) {
+                    out.writeBoolean(removed[row]);
+                }
+                for (int i = 0; i < itemCount; i++) {
+                    out.writeInt(productIds[i]);
+                }
+                for (int i = 0; i < itemCount; i++) {
+                    out.writeInt(quantities[i]);
+                }
+                for (int i = 0; i < itemCount; i++) {
+                    out.writeLong(prices[i]);
+                }
+                for (int i = 0; i < itemCount; i++) {
+                    out.writeUTF(names[i]);
+                }
+                out.flush();
+                out.writeInt((int) checked.getChecksum().getValue());
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return file;
+        }
+
+        static Chunk read(Path file) throws IOException {
+            try (InputStream stream = Files.newInputStream(file)) {
+                CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(stream, 1 << 16), new CRC32());
+                DataInputStream in = new DataInputStream(checked);
+
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("El archivo " + file + " no es un bloque del historial válido");
+                }
+                Chunk chunk = new Chunk();
+                chunk.count = in.readInt();
+                int itemCount = in.readInt();
+                if (chunk.count < 0 || chunk.count > CHUNK_ORDERS || itemCount < 0) {
+                    throw new IOException("El bloque del historial " + file + " está dañado");
+                }
+                chunk.ensureItemCapacity(itemCount);
+                chunk.itemCount = itemCount;
+                chunk.removed = new boolean[chunk.count];
+                for (int row = 0; row < chunk.count; row++) {
+                    chunk.ids[row] = in.readUTF();
+                }
+                for (int row = 0; row < chunk.count; row++) {
+                    String date = in.readUTF();
+                    chunk.dates[row] = date.isEmpty() ? null : date;
+                }
+                for (int row = 0; row < chunk.count; row++) {
+                    chunk.discounts[row] = in.readLong();
+                }
+                for (int row = 0; row < chunk.count; row++) {
+                    chunk.itemEnd[row] = in.readInt();
+                }
+                for (int row = 0; row < chunk.count; row++) {
+                    chunk.removed[row] = in.readBoolean();
+                }
+                for (int i = 0; i < itemCount; i++) {
+                    chunk.productIds[i] = in.readInt();
+                }
+                for (int i = 0; i < itemCount; i++) {
+                    chunk.quantities[i] = in.readInt();
+                }
+                for (int i = 0; i < itemCount; i++) {
+                    chunk.prices[i] = in.readLong();
+                }
+                for (int i = 0; i < itemCount; i++) {
+                    chunk.names[i] = in.readUTF();
+                }
+
+                int expected = (int) checked.getChecksum().getValue();
+                if (in.readInt() != expected) {
+                    throw new IOException("El bloque del historial " + file + " está dañado");
+                }
+                return chunk;
+            }
+        }
+    }
+}
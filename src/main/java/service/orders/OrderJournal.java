@@ -0,0 +1,450 @@
+package service.orders;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Registro de escritura anticipada (write-ahead log) de los cambios de los carritos
+ * Cada cambio se agrega al final de un archivo de segmento, nunca se modifica lo ya escrito
+ * Las escrituras se agrupan: un único hilo toma todos los registros pendientes, los escribe juntos y hace un
+ * solo fsync para todo el grupo (group commit), así muchos clientes pagan un solo acceso al disco
+ *
+ * Cada registro se guarda como: largo (int), contenido, CRC32 del contenido (int)
+ * Si el proceso se detiene a mitad de una escritura, el último registro queda incompleto y al abrir el registro se descarta
+ *
+ * Antes de escribir cada grupo se llama a beforeWrite, JournaledOrderManager lo usa para guardar primero el stock
+ *
+ * Al tomar una foto con OrderSnapshot el registro pasa a un segmento nuevo (rotate) y los segmentos anteriores
+ * a la foto se borran, así los archivos del registro no crecen sin límite
+ */
+
+public class OrderJournal implements AutoCloseable {
+
+    static final byte NEW = 1;
+    static final byte SET_ITEM = 2;
+    static final byte CLEAR = 3;
+    static final byte CLOSE = 4;
+    static final byte REMOVE = 5;
+    static final byte SET_ITEMS = 6;
+
+    private static final String SEGMENT_PREFIX = "orders-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_BATCH = 4096;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+
+    private final Path directory;
+    private final Flushable beforeWrite;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private FileChannel channel;
+    private long segment;
+    private volatile boolean closed;
+
+    /**
+     * Registro pendiente de escribir, la promesa se completa cuando el registro ya está en el disco
+     */
+
+    private record Pending(byte[] record, CompletableFuture<Void> done) {
+    }
+
+    /**
+     * Marca que se agrega a la cola al cerrar, el hilo escritor termina al encontrarla
+     */
+
+    private static final Pending END = new Pending(new byte[0], new CompletableFuture<>());
+
+    /**
+     * Cambio leído del registro al reconstruir el estado
+     */
+
+    public record Entry(byte type, String cartId, int productId, int quantity, String date, long discount) {
+    }
+
+    /**
+     * Abre el registro en el directorio indicado, los nuevos registros se agregan al último segmento
+     * Si el último segmento termina en un registro incompleto, se recorta para que lo nuevo no quede detrás de él
+     * @param directory Directorio de los segmentos, se crea si no existe
+     */
+
+    public OrderJournal(Path directory) throws IOException {
+        this(directory, () -> {
+        });
+    }
+
+    /**
+     * Abre el registro en el directorio indicado
+     * @param directory Directorio de los segmentos, se crea si no existe
+     * @param beforeWrite Se llama antes de escribir cada grupo, si falla el grupo no se escribe
+     */
+
+    public OrderJournal(Path directory, Flushable beforeWrite) throws IOException {
+        this.directory = directory;
+        this.beforeWrite = beforeWrite;
+        Files.createDirectories(directory);
+        List<Path> segments = segments(directory);
+        this.segment = segments.isEmpty() ? 1 : segmentNumber(segments.get(segments.size() - 1));
+        this.channel = openSegment(segment);
+        if (!segments.isEmpty()) {
+            long valid = readSegment(segmentPath(segment), new ArrayList<>());
+            if (valid < channel.size()) {
+                channel.truncate(valid);
+            }
+        }
+
+        this.writer = new Thread(this::writeLoop, "order-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Lee todos los registros válidos de los segmentos del directorio, en el orden en el que se escribieron
+     * Si el último registro de un segmento está incompleto o dañado, se descarta junto con lo que le sigue
+     * @param directory Directorio de los segmentos
+     * @return Cambios registrados
+     */
+
+    public static List<Entry> readAll(Path directory) throws IOException {
+        return readAll(directory, 0);
+    }
+
+    /**
+     * Lee los registros válidos desde un segmento en adelante, los anteriores ya están incluidos en una foto
+     * @param directory Directorio de los segmentos
+     * @param firstSegment Número del primer segmento que se quiere leer
+     * @return Cambios registrados
+     */
+
+    public static List<Entry> readAll(Path directory, long firstSegment) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return entries;
+        }
+        for (Path segment : segments(directory)) {
+            if (segmentNumber(segment) >= firstSegment) {
+                readSegment(segment, entries);
+            }
+        }
+        return entries;
+    }
+
+    public CompletableFuture<Void> appendNew(String cartId) {
+        return append(encode(NEW, cartId, 0, 0, null, 0));
+    }
+
+    /**
+     * Registra la cantidad final de un producto dentro de un carrito, 0 significa que se eliminó
+     * Se guarda la cantidad resultante y no la diferencia, así aplicar el mismo registro dos veces da el mismo estado
+     */
+
+    public CompletableFuture<Void> appendSetItem(String cartId, int productId, int quantity) {
+        return append(encode(SET_ITEM, cartId, productId, quantity, null, 0));
+    }
+
+    /**
+     * Registra la cantidad final de varios productos de un carrito en un solo registro con un solo CRC,
+     * al reiniciar se aplican todos o, si el registro quedó incompleto, ninguno
+     * @throws IllegalArgumentException si el lote no cabe en un registro
+     */
+
+    public CompletableFuture<Void> appendSetItems(String cartId, int[] productIds, int[] quantities) {
+        return append(encodeItems(cartId, productIds, quantities));
+    }
+
+    public CompletableFuture<Void> appendClear(String cartId) {
+        return append(encode(CLEAR, cartId, 0, 0, null, 0));
+    }
+
+    public CompletableFuture<Void> appendClose(String cartId, String date, long discount) {
+        return append(encode(CLOSE, cartId, 0, 0, date, discount));
+    }
+
+    public CompletableFuture<Void> appendRemove(String cartId) {
+        return append(encode(REMOVE, cartId, 0, 0, null, 0));
+    }
+
+    private CompletableFuture<Void> append(byte[] record) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (closed) {
+            done.completeExceptionally(new IOException("El registro de carritos está cerrado"));
+            return done;
+        }
+        queue.add(new Pending(record, done));
+        return done;
+    }
+
+    /**
+     * Cierra el segmento actual y sigue escribiendo en uno nuevo
+     * Los grupos se escriben completos dentro de un mismo segmento, todo registro que quedó en los segmentos
+     * anteriores ya estaba aplicado en memoria antes de rotar
+     * @return Número del segmento nuevo
+     */
+
+    public synchronized long rotate() throws IOException {
+        FileChannel next = openSegment(segment + 1);
+        channel.force(false);
+        channel.close();
+        channel = next;
+        segment++;
+        return segment;
+    }
+
+    /**
+     * Bytes escritos en el segmento actual, 0 si no hubo cambios desde la última rotación
+     */
+
+    public synchronized long currentSegmentSize() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Borra los segmentos anteriores al indicado, se usa después de guardar una foto que ya los incluye
+     */
+
+    public void deleteSegmentsBefore(long firstSegment) throws IOException {
+        for (Path path : segments(directory)) {
+            if (segmentNumber(path) < firstSegment) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Espera a que todos los registros pendientes estén en el disco y cierra el segmento actual
+     */
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        queue.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Pending late;
+        while ((late = queue.poll()) != null) {
+            late.done.completeExceptionally(new IOException("El registro de carritos está cerrado"));
+        }
+        synchronized (this) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Hilo escritor: espera el primer registro, toma todos los que se acumularon mientras tanto,
+     * los escribe en un solo bloque y hace un único fsync por grupo
+     */
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            int end = batch.indexOf(END);
+            if (end >= 0) {
+                // Lo que llegó después de la marca se rechaza al cerrar
+                for (Pending late : batch.subList(end + 1, batch.size())) {
+                    late.done.completeExceptionally(new IOException("El registro de carritos está cerrado"));
+                }
+                batch.subList(end, batch.size()).clear();
+                running = false;
+            }
+
+            try {
+                beforeWrite.flush();
+                buffer.clear();
+                for (Pending pending : batch) {
+                    if (buffer.remaining() < pending.record.length) {
+                        buffer = grow(buffer, pending.record.length);
+                    }
+                    buffer.put(pending.record);
+                }
+                buffer.flip();
+                synchronized (this) {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                }
+                for (Pending pending : batch) {
+                    pending.done.complete(null);
+                }
+            } catch (IOException e) {
+                for (Pending pending : batch) {
+                    pending.done.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private static byte[] encode(byte type, String cartId, int productId, int quantity, String date, long discount) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            out.writeUTF(cartId);
+            if (type == SET_ITEM) {
+                out.writeInt(productId);
+                out.writeInt(quantity);
+            } else if (type == CLOSE) {
+                out.writeUTF(date == null ? "" : date);
+                out.writeLong(discount);
+            }
+            return frame(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encodeItems(String cartId, int[] productIds, int[] quantities) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + productIds.length * 8);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(SET_ITEMS);
+            out.writeUTF(cartId);
+            out.writeInt(productIds.length);
+            for (int i = 0; i < productIds.length; i++) {
+                out.writeInt(productIds[i]);
+                out.writeInt(quantities[i]);
+            }
+            byte[] payload = bytes.toByteArray();
+            if (payload.length > MAX_RECORD_BYTES) {
+                throw new IllegalArgumentException("demasiados productos en un mismo cambio: " + productIds.length);
+            }
+            return frame(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Arma el registro completo: largo, contenido y CRC32 del contenido
+     */
+
+    private static byte[] frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(payload.length + 8);
+        record.putInt(payload.length).put(payload).putInt((int) crc.getValue());
+        return record.array();
+    }
+
+    /**
+     * Lee los registros válidos de un segmento
+     * @return Cantidad de bytes válidos desde el inicio del segmento
+     */
+
+    private static long readSegment(Path segment, List<Entry> entries) throws IOException {
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_BYTES) {
+                        return valid;
+                    }
+                    payload = in.readNBytes(length);
+                    if (payload.length != length) {
+                        return valid;
+                    }
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        return valid;
+                    }
+                } catch (EOFException e) {
+                    return valid;
+                }
+                decode(payload, entries);
+                valid += payload.length + 8L;
+            }
+        }
+    }
+
+    /**
+     * Un registro SET_ITEMS se entrega como un SET_ITEM por producto, ya se comprobó su CRC así que están todos
+     */
+
+    private static void decode(byte[] payload, List<Entry> entries) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        String cartId = in.readUTF();
+        if (type == SET_ITEM) {
+            entries.add(new Entry(type, cartId, in.readInt(), in.readInt(), null, 0));
+        } else if (type == SET_ITEMS) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                entries.add(new Entry(SET_ITEM, cartId, in.readInt(), in.readInt(), null, 0));
+            }
+        } else if (type == CLOSE) {
+            entries.add(new Entry(type, cartId, 0, 0, in.readUTF(), in.readLong()));
+        } else {
+            entries.add(new Entry(type, cartId, 0, 0, null, 0));
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Segmentos del directorio ordenados por número
+     */
+
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
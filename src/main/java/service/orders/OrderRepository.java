@@ -70,8 +70,37 @@ public interface OrderRepository {
 
     Order getOrderById(String id);
 
+    /**
+     * Carritos abiertos, en el orden en el que se crearon
+     * @return Lista de solo lectura con los carritos abiertos
+     */
+
     List<Order> getOrders();
 
+    /**
+     * Página de los carritos abiertos, en el orden en el que se crearon
+     * @param from Posición del primer carrito, empezando en 0
+     * @param limit Cantidad máxima de carritos
+     * @return Lista de solo lectura con los carritos de la página
+     */
+
+    List<Order> getOrders(int from, int limit);
+
+    /**
+     * Carritos cerrados, en el orden en el que se cerraron
+     * @param from Posición del primer carrito, empezando en 0
+     * @param limit Cantidad máxima de carritos
+     * @return Copias de solo lectura de los carritos cerrados
+     */
+
+    List<Order> getClosedOrders(int from, int limit);
+
+    /**
+     * @return Cantidad de carritos cerrados
+     */
+
+    int countClosedOrders();
+
     /**
      * Actualiza la cantidad de un producto que hay dentro de un "Shopping Cart"
      * @param order El carrito que se quiere modificar
@@ -82,4 +111,22 @@ public interface OrderRepository {
 
     Boolean updateOrder(Order order, Integer itemId, Integer quantity);
 
+    /**
+     * Deja varios productos del carrito con la cantidad indicada en un solo cambio
+     * Los productos que no estaban en el carrito se agregan y los que quedan con cantidad 0 se eliminan
+     * @param order El carrito que se quiere modificar
+     * @param items Productos con la cantidad final de cada uno, sin productos repetidos
+     * @return True si se han actualizado todos los productos, false en caso contrario sin cambiar ninguno
+     */
+
+    Boolean setOrderItems(Order order, List<OrderItem> items);
+
+    /**
+     * Calcula el descuento que recibiría el carrito si se cerrara ahora, con las reglas de precios vigentes
+     * @param order Carrito, quien lo llama se encarga de que no cambie mientras tanto
+     * @return Descuento en centavos
+     */
+
+    long discountFor(Order order);
+
 }
@@ -0,0 +1,211 @@
+package service.orders;
+
+import model.Order;
+import model.OrderItem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Foto del estado de todos los carritos guardada en un archivo binario compacto
+ * Al reiniciar se carga la última foto y solo se aplican los segmentos del OrderJournal escritos después de ella,
+ * así el tiempo de arranque no depende de cuántos cambios se hayan registrado desde siempre
+ *
+ * Formato: magic, versión, primer segmento que no está incluido en la foto (long), cantidad de carritos
+ * Por carrito: id, si está cerrado, fecha ("" si no tiene), descuento, cantidad de productos y pares (id del producto, cantidad)
+ * Al final va el CRC32 de todo lo anterior, una foto que no lo cumple se rechaza
+ */
+
+public final class OrderSnapshot {
+
+    private static final int MAGIC = 0x4F534E50; // "OSNP"
+    private static final int VERSION = 1;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String TEMPORARY_NAME = "snapshot.tmp";
+
+    private OrderSnapshot() {
+    }
+
+    /**
+     * Estado de un carrito copiado en el momento de la foto
+     */
+
+    public record OrderState(String id, boolean checkedOut, String date, long discount,
+                             int[] productIds, int[] quantities) {
+    }
+
+    /**
+     * Foto leída del disco
+     * @param firstSegment Número del primer segmento del registro que hay que aplicar encima de la foto
+     */
+
+    public record Snapshot(long firstSegment, List<OrderState> orders) {
+    }
+
+    /**
+     * Copia el estado de un carrito sin tomar su candado, quien llama debe asegurar que ningún cambio está en curso
+     * JournaledOrderManager copia los carritos con el candado de escritura de sus cambios, como los cambios se hacen
+     * con el candado de lectura la copia nunca ve un cambio a medias, y tomar además el candado del carrito podría
+     * bloquearse contra ShoppingCartUseCase, que toma primero el del carrito y después el de los cambios
+     * Por la misma razón un carrito nunca está en CHECKING_OUT: o sigue abierto y su cierre todavía no se registró,
+     * o ya está cerrado con su fecha y su descuento
+     */
+
+    public static OrderState capture(Order order) {
+        List<OrderItem> items = order.getOrderItems();
+        int[] productIds = new int[items.size()];
+        int[] quantities = new int[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            OrderItem item = items.get(i);
+            productIds[i] = item.getProduct().getId();
+            quantities[i] = item.getQuantity();
+        }
+        return new OrderState(order.getId(), Boolean.TRUE.equals(order.getCheckedOut()), order.getDate(),
+                order.getDiscount(), productIds, quantities);
+    }
+
+    /**
+     * Escribe una foto nueva, primero en un archivo temporal y después la mueve a su nombre definitivo,
+     * así nunca queda en el directorio una foto escrita a medias
+     * @param directory Directorio del registro
+     * @param firstSegment Primer segmento del registro que no está incluido en la foto
+     * @param orders Estado de los carritos
+     * @return Archivo de la foto
+     */
+
+    public static Path write(Path directory, long firstSegment, List<OrderState> orders) throws IOException {
+        Path temporary = directory.resolve(TEMPORARY_NAME);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream stream = Channels.newOutputStream(channel);
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(stream, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(firstSegment);
+            out.writeInt(orders.size());
+            for (OrderState order : orders) {
+                out.writeUTF(order.id());
+                out.writeBoolean(order.checkedOut());
+                out.writeUTF(order.date() == null ? "" : order.date());
+                out.writeLong(order.discount());
+                out.writeInt(order.productIds().length);
+                for (int i = 0; i < order.productIds().length; i++) {
+                    out.writeInt(order.productIds()[i]);
+                    out.writeInt(order.quantities()[i]);
+                }
+            }
+            out.flush();
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            channel.force(true);
+        }
+
+        Path snapshot = snapshotPath(directory, firstSegment);
+        Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return snapshot;
+    }
+
+    /**
+     * Lee la foto más reciente del directorio
+     * @return La foto, o null si no hay ninguna
+     * @throws IOException si la foto más reciente está dañada
+     */
+
+    public static Snapshot readLatest(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return null;
+        }
+        List<Path> snapshots = snapshots(directory);
+        if (snapshots.isEmpty()) {
+            return null;
+        }
+        return read(snapshots.get(snapshots.size() - 1));
+    }
+
+    /**
+     * Borra las fotos anteriores a la indicada, ya no hacen falta para reconstruir el estado
+     */
+
+    public static void deleteOlderThan(Path directory, long firstSegment) throws IOException {
+        for (Path snapshot : snapshots(directory)) {
+            if (snapshotNumber(snapshot) < firstSegment) {
+                Files.deleteIfExists(snapshot);
+            }
+        }
+    }
+
+    private static Snapshot read(Path file) throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(stream, 1 << 16), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("El archivo " + file + " no es una foto de carritos válida");
+            }
+            long firstSegment = in.readLong();
+            int count = in.readInt();
+            List<OrderState> orders = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = in.readUTF();
+                boolean checkedOut = in.readBoolean();
+                String date = in.readUTF();
+                long discount = in.readLong();
+                int items = in.readInt();
+                int[] productIds = new int[items];
+                int[] quantities = new int[items];
+                for (int j = 0; j < items; j++) {
+                    productIds[j] = in.readInt();
+                    quantities[j] = in.readInt();
+                }
+                orders.add(new OrderState(id, checkedOut, date.isEmpty() ? null : date, discount, productIds, quantities));
+            }
+
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("La foto de carritos " + file + " está dañada");
+            }
+            return new Snapshot(firstSegment, orders);
+        }
+    }
+
+    private static Path snapshotPath(Path directory, long firstSegment) {
+        return directory.resolve(String.format("%s%012d%s", SNAPSHOT_PREFIX, firstSegment, SNAPSHOT_SUFFIX));
+    }
+
+    private static List<Path> snapshots(Path directory) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path path : stream) {
+                snapshots.add(path);
+            }
+        }
+        snapshots.sort(null);
+        return snapshots;
+    }
+
+    private static long snapshotNumber(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+}
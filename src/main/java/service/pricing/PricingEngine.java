@@ -0,0 +1,99 @@
+package service.pricing;
+
+import model.Order;
+import util.FileWatcher;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Calcula los descuentos de los carritos con las reglas de precios vigentes
+ * Las reglas se compilan una sola vez al cargarlas y se publican de una sola vez, cada cálculo usa la versión
+ * que estaba publicada al empezar, así una recarga nunca deja un carrito evaluado con reglas mezcladas
+ * Si un archivo de reglas no es válido se informa el error y se siguen usando las reglas anteriores
+ */
+
+public class PricingEngine implements AutoCloseable {
+
+    /**
+     * Singleton, la aplicación siempre usa la instancia que devuelve la funcion getInstance()
+     */
+
+    private static final PricingEngine INSTANCE = new PricingEngine();
+
+    private volatile PricingRules rules = PricingRules.defaults();
+    private FileWatcher watcher;
+
+    private PricingEngine() {
+    }
+
+    public static PricingEngine getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return Reglas publicadas en este momento
+     */
+
+    public PricingRules getRules() {
+        return rules;
+    }
+
+    /**
+     * Calcula el descuento de un carrito, quien lo llama se encarga de que el carrito no cambie mientras tanto
+     * @param order Carrito
+     * @return Descuento en centavos
+     */
+
+    public long discountFor(Order order) {
+        return rules.discountFor(order);
+    }
+
+    /**
+     * Reemplaza las reglas vigentes por unas ya compiladas
+     * @param rules Reglas nuevas
+     */
+
+    public void setRules(PricingRules rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Lee el archivo de reglas, lo compila y lo publica
+     * @param file Ruta del archivo de reglas
+     * @return Reglas publicadas
+     * @throws IOException si no se puede leer el archivo, en ese caso las reglas vigentes no cambian
+     * @throws IllegalArgumentException si alguna regla no es válida, en ese caso las reglas vigentes no cambian
+     */
+
+    public PricingRules reload(Path file) throws IOException {
+        PricingRules compiled = PricingRules.read(file);
+        this.rules = compiled;
+        return compiled;
+    }
+
+    /**
+     * Vigila el archivo de reglas en un hilo en segundo plano y lo recarga cada vez que cambia
+     * @param file Ruta del archivo de reglas que se quiere vigilar
+     */
+
+    public synchronized void watch(Path file) {
+        if (watcher != null) {
+            return;
+        }
+        watcher = FileWatcher.start(file, "pricing-watcher", "las reglas de precios",
+                changed -> System.out.println("Reglas de precios recargadas: " + reload(changed).size() + " reglas"));
+    }
+
+    /**
+     * Deja de vigilar el archivo de reglas, las reglas vigentes se siguen usando
+     */
+
+    @Override
+    public synchronized void close() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+}
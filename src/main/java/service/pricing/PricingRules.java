@@ -0,0 +1,286 @@
+package service.pricing;
+
+import model.Money;
+import model.Order;
+import model.OrderItem;
+import util.IntHashMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reglas de precios ya compiladas en un plan para evaluarlas rápido en cada carrito
+ * Las reglas de producto y los combos se guardan en un mapa por id de producto, así por cada producto del carrito
+ * se hace una sola búsqueda y solo se evalúan las reglas que le aplican, sin importar cuántas promociones haya
+ * Los descuentos por monto se guardan ordenados y se busca el que corresponde con una búsqueda binaria
+ *
+ * El archivo tiene una regla por línea, con los campos separados por ";" y las líneas con # son comentarios
+ * Los montos van en pesos con hasta dos decimales y los porcentajes en puntos básicos (500 = 5%):
+ * TIER;monto;puntosBásicos                 descuento sobre el total si el total supera el monto, se usa el mayor que aplique
+ * PRODUCT;productId;puntosBásicos          descuento sobre el subtotal de un producto, si se repite se usa el mayor
+ * BUNDLE;productId:cantidad,...;monto      monto que se descuenta por cada combo completo que haya en el carrito
+ *
+ * Primero se aplican los descuentos de producto y los combos, el descuento por monto se calcula sobre lo que queda
+ */
+
+public final class PricingRules {
+
+    private static final String DEFAULTS_FILE = "pricing.txt";
+    private static final PricingRules DEFAULTS = loadDefaults();
+
+    private final long[] tierThresholds;
+    private final int[] tierBasisPoints;
+    private final IntHashMap<ProductPlan> plansByProductId;
+    private final int ruleCount;
+
+    /**
+     * Reglas que aplican a un producto: su descuento y los combos que empiezan por él
+     * Cada combo se guarda solo en su primer producto, así se evalúa una sola vez por carrito
+     */
+
+    private record ProductPlan(int basisPoints, Bundle[] bundles) {
+    }
+
+    private record Bundle(int[] productIds, int[] quantities, long amountOff) {
+    }
+
+    private PricingRules(long[] tierThresholds, int[] tierBasisPoints, IntHashMap<ProductPlan> plansByProductId,
+                         int ruleCount) {
+        this.tierThresholds = tierThresholds;
+        this.tierBasisPoints = tierBasisPoints;
+        this.plansByProductId = plansByProductId;
+        this.ruleCount = ruleCount;
+    }
+
+    /**
+     * Reglas que se usan si no se carga ningún archivo, las de pricing.txt en los recursos de la aplicación:
+     * 5% de descuento en compras de más de $100.000
+     */
+
+    public static PricingRules defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Lee las reglas por defecto de los recursos, si no se pueden leer se informa el error y no hay descuentos
+     */
+
+    private static PricingRules loadDefaults() {
+        try (InputStream stream = PricingRules.class.getClassLoader().getResourceAsStream(DEFAULTS_FILE)) {
+            if (stream == null) {
+                throw new IOException("no se encontró " + DEFAULTS_FILE);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            return compile(reader.lines().toList());
+        } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+            System.err.println("Error al cargar las reglas de precios por defecto: " + e.getMessage());
+            return compile(List.of());
+        }
+    }
+
+    /**
+     * Lee y compila un archivo de reglas
+     * @param file Ruta del archivo
+     * @return Reglas compiladas
+     * @throws IOException si no se puede leer el archivo
+     * @throws IllegalArgumentException si alguna línea no es válida, indicando el número de línea
+     */
+
+    public static PricingRules read(Path file) throws IOException {
+        return compile(Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compila las reglas, si alguna línea no es válida no se compila ninguna
+     * @param lines Líneas con el formato del archivo de reglas
+     * @return Reglas compiladas
+     * @throws IllegalArgumentException si alguna línea no es válida, indicando el número de línea
+     */
+
+    public static PricingRules compile(List<String> lines) {
+        List<long[]> tiers = new ArrayList<>();
+        IntHashMap<Integer> productBasisPoints = new IntHashMap<>();
+        IntHashMap<List<Bundle>> bundlesByProductId = new IntHashMap<>();
+        List<Integer> productIds = new ArrayList<>();
+        int ruleCount = 0;
+
+        for (int number = 1; number <= lines.size(); number++) {
+            String line = lines.get(number - 1).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(";");
+            try {
+                switch (fields[0].strip().toUpperCase()) {
+                    case "TIER" -> {
+                        expectFields(fields, 3);
+                        tiers.add(new long[]{Money.parse(fields[1].strip()), basisPoints(fields[2])});
+                    }
+                    case "PRODUCT" -> {
+                        expectFields(fields, 3);
+                        int productId = Integer.parseInt(fields[1].strip());
+                        Integer previous = productBasisPoints.get(productId);
+                        int basisPoints = basisPoints(fields[2]);
+                        if (previous == null) {
+                            productIds.add(productId);
+                        }
+                        productBasisPoints.put(productId, previous == null ? basisPoints : Math.max(previous, basisPoints));
+                    }
+                    case "BUNDLE" -> {
+                        expectFields(fields, 3);
+                        Bundle bundle = bundle(fields[1], Money.parse(fields[2].strip()));
+                        int anchor = bundle.productIds()[0];
+                        List<Bundle> anchored = bundlesByProductId.get(anchor);
+                        if (anchored == null) {
+                            anchored = new ArrayList<>();
+                            bundlesByProductId.put(anchor, anchored);
+                            if (productBasisPoints.get(anchor) == null) {
+                                productIds.add(anchor);
+                            }
+                        }
+                        anchored.add(bundle);
+                    }
+                    default -> throw new IllegalArgumentException("tipo de regla desconocido " + fields[0]);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Regla inválida en la línea " + number + ": " + e.getMessage(), e);
+            }
+            ruleCount++;
+        }
+
+        tiers.sort((a, b) -> Long.compare(a[0], b[0]));
+        long[] thresholds = new long[tiers.size()];
+        int[] tierBasisPoints = new int[tiers.size()];
+        for (int i = 0; i < tiers.size(); i++) {
+            thresholds[i] = tiers.get(i)[0];
+            tierBasisPoints[i] = (int) tiers.get(i)[1];
+        }
+
+        IntHashMap<ProductPlan> plans = new IntHashMap<>(Math.max(productIds.size(), 4));
+        for (int productId : productIds) {
+            Integer basisPoints = productBasisPoints.get(productId);
+            List<Bundle> anchored = bundlesByProductId.get(productId);
+            plans.put(productId, new ProductPlan(basisPoints == null ? 0 : basisPoints,
+                    anchored == null ? new Bundle[0] : anchored.toArray(new Bundle[0])));
+        }
+        return new PricingRules(thresholds, tierBasisPoints, plans, ruleCount);
+    }
+
+    /**
+     * @return Cantidad de reglas compiladas
+     */
+
+    public int size() {
+        return ruleCount;
+    }
+
+    /**
+     * Calcula el descuento de un carrito, quien lo llama se encarga de que el carrito no cambie mientras tanto
+     * @param order Carrito
+     * @return Descuento en centavos, nunca mayor al total del carrito
+     */
+
+    public long discountFor(Order order) {
+        long total = order.getTotal();
+        long discount = 0;
+        List<OrderItem> items = order.getOrderItems();
+        for (int i = 0; i < items.size(); i++) {
+            OrderItem item = items.get(i);
+            ProductPlan plan = plansByProductId.get(item.getProduct().getId());
+            if (plan == null) {
+                continue;
+            }
+            if (plan.basisPoints() > 0) {
+                discount += Money.percentOf(item.getSubtotal(), plan.basisPoints());
+            }
+            for (Bundle bundle : plan.bundles()) {
+                discount += Math.multiplyExact(completeBundles(order, bundle), bundle.amountOff());
+            }
+        }
+
+        discount = Math.min(discount, total);
+        int tier = lastTierBelow(total - discount);
+        if (tier >= 0) {
+            discount += Money.percentOf(total - discount, tierBasisPoints[tier]);
+        }
+        return Math.min(discount, total);
+    }
+
+    /**
+     * Cantidad de veces que el combo está completo en el carrito
+     */
+
+    private static long completeBundles(Order order, Bundle bundle) {
+        long complete = Long.MAX_VALUE;
+        for (int i = 0; i < bundle.productIds().length; i++) {
+            OrderItem item = order.findItem(bundle.productIds()[i]);
+            if (item == null) {
+                return 0;
+            }
+            complete = Math.min(complete, item.getQuantity() / bundle.quantities()[i]);
+        }
+        return complete;
+    }
+
+    /**
+     * Posición del mayor monto que el total supera, o -1 si no supera ninguno
+     */
+
+    private int lastTierBelow(long amount) {
+        int low = 0;
+        int high = tierThresholds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tierThresholds[mid] < amount) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    private static Bundle bundle(String products, long amountOff) {
+        String[] parts = products.split(",");
+        int[] ids = new int[parts.length];
+        int[] quantities = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String[] pair = parts[i].strip().split(":");
+            ids[i] = Integer.parseInt(pair[0].strip());
+            quantities[i] = pair.length > 1 ? Integer.parseInt(pair[1].strip()) : 1;
+            if (quantities[i] <= 0) {
+                throw new IllegalArgumentException("la cantidad de un combo debe ser positiva");
+            }
+        }
+        if (Arrays.stream(ids).distinct().count() != ids.length) {
+            throw new IllegalArgumentException("un combo no puede repetir productos");
+        }
+        if (amountOff < 0) {
+            throw new IllegalArgumentException("el descuento de un combo no puede ser negativo");
+        }
+        return new Bundle(ids, quantities, amountOff);
+    }
+
+    private static int basisPoints(String text) {
+        int basisPoints = Integer.parseInt(text.strip());
+        if (basisPoints < 0 || basisPoints > 10_000) {
+            throw new IllegalArgumentException("el porcentaje debe estar entre 0 y 10000 puntos básicos");
+        }
+        return basisPoints;
+    }
+
+    private static void expectFields(String[] fields, int count) {
+        if (fields.length != count) {
+            throw new IllegalArgumentException("se esperaban " + count + " campos");
+        }
+    }
+}
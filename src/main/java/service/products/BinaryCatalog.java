@@ -0,0 +1,116 @@
+package service.products;
+
+import model.Product;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Formato binario del catálogo, pensado para abrirse con MappedProductManager sin leerlo completo
+ *
+ * Cabecera (32 bytes): magic, versión, cantidad de productos, 0, posición de los textos (long), largo de los textos (long)
+ * Registros (32 bytes cada uno, ordenados por id): id, stock, precio en centavos (long),
+ * posición del nombre (long), largo del nombre, largo de la descripción
+ * Textos: nombres y descripciones en UTF-8, la descripción de cada producto va justo después de su nombre,
+ * las posiciones son relativas al inicio de esta sección y son long, así los textos pueden pasar de 2 GiB
+ * Todos los números se guardan en big endian, el archivo mide exactamente la posición más el largo de los textos
+ */
+
+public final class BinaryCatalog {
+
+    static final int MAGIC = 0x43415442; // "CATB"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_BYTES = 32;
+
+    static final int ID_OFFSET = 0;
+    static final int STOCK_OFFSET = 4;
+    static final int PRICE_OFFSET = 8;
+    static final int NAME_OFFSET = 16;
+    static final int NAME_LENGTH_OFFSET = 24;
+    static final int DESCRIPTION_LENGTH_OFFSET = 28;
+
+    private BinaryCatalog() {
+    }
+
+    /**
+     * Convierte un catálogo CSV a formato binario
+     * Uso: BinaryCatalog products.csv products.bin
+     */
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Uso: BinaryCatalog <catalogo.csv> <catalogo.bin>");
+            return;
+        }
+
+        CsvCatalogLoader.Result result = new CsvCatalogLoader().load(Path.of(args[0]));
+        write(result.products(), Path.of(args[1]));
+        System.out.println("Se escribieron " + result.products().size() + " productos, "
+                + result.rejectedRows().size() + " filas rechazadas");
+    }
+
+    /**
+     * Escribe los productos en formato binario, si un id está repetido se queda con el último
+     * @param products Productos que se quieren guardar
+     * @param file Archivo de destino, se reemplaza si ya existe
+     */
+
+    public static void write(List<Product> products, Path file) throws IOException {
+        Map<Integer, Product> unique = new LinkedHashMap<>();
+        for (Product product : products) {
+            unique.put(product.getId(), product);
+        }
+        List<Product> sorted = new ArrayList<>(unique.values());
+        sorted.sort(Comparator.comparingInt(Product::getId));
+
+        List<byte[]> names = new ArrayList<>(sorted.size());
+        List<byte[]> descriptions = new ArrayList<>(sorted.size());
+        long stringsLength = 0;
+        for (Product product : sorted) {
+            byte[] name = product.getName().getBytes(StandardCharsets.UTF_8);
+            byte[] description = product.getDescription().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            descriptions.add(description);
+            stringsLength += name.length + description.length;
+        }
+        long stringsOffset = HEADER_BYTES + (long) RECORD_BYTES * sorted.size();
+
+        try (OutputStream stream = Files.newOutputStream(file);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            out.writeInt(0);
+            out.writeLong(stringsOffset);
+            out.writeLong(stringsLength);
+
+            long position = 0;
+            for (int i = 0; i < sorted.size(); i++) {
+                Product product = sorted.get(i);
+                out.writeInt(product.getId());
+                out.writeInt(product.getStock());
+                out.writeLong(product.getPrice());
+                out.writeLong(position);
+                out.writeInt(names.get(i).length);
+                out.writeInt(descriptions.get(i).length);
+                position += names.get(i).length + descriptions.get(i).length;
+            }
+
+            for (int i = 0; i < sorted.size(); i++) {
+                out.write(names.get(i));
+                out.write(descriptions.get(i));
+            }
+        }
+    }
+}
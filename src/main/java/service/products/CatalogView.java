@@ -0,0 +1,130 @@
+package service.products;
+
+import model.Product;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Versión inmutable del catálogo que se puede compartir entre hilos sin copiarla
+ * Cada recarga del catálogo publica una vista nueva con un número de versión mayor, quien tiene una vista
+ * la puede seguir recorriendo aunque el catálogo cambie, solo el stock de cada producto sigue siendo el actual
+ *
+ * Se puede recorrer por páginas (posición dentro de la lista) o con un cursor: el id del último producto leído
+ * El cursor sigue sirviendo entre versiones, los productos agregados o eliminados no hacen que se repitan
+ * ni que se salten los demás productos
+ */
+
+public final class CatalogView {
+
+    private final long version;
+    private final List<Product> products;
+    private volatile List<Product> byId;
+
+    /**
+     * Resultado de una lectura con cursor
+     * @param products Productos de la página, ordenados por id
+     * @param nextCursor Cursor para pedir la página siguiente, o null si no hay más productos
+     */
+
+    public record CursorPage(List<Product> products, Integer nextCursor) {
+    }
+
+    /**
+     * @param version Número de versión del catálogo
+     * @param products Productos de la versión, la lista no debe volver a modificarse
+     * @param sortedById True si la lista ya está ordenada por id, así no hace falta ordenarla para los cursores
+     */
+
+    public CatalogView(long version, List<Product> products, boolean sortedById) {
+        this.version = version;
+        this.products = products;
+        if (sortedById) {
+            this.byId = products;
+        }
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public int size() {
+        return products.size();
+    }
+
+    /**
+     * Todos los productos de la versión, en el orden del catálogo
+     */
+
+    public List<Product> products() {
+        return products;
+    }
+
+    /**
+     * Página de productos en el orden del catálogo, sin copiar la lista
+     * @param pageNumber Número de página, empezando en 0
+     * @param pageSize Cantidad de productos por página
+     * @return Productos de la página, vacía si la página está fuera del catálogo
+     */
+
+    public List<Product> page(int pageNumber, int pageSize) {
+        if (pageNumber < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("la página y su tamaño deben ser positivos");
+        }
+        long from = (long) pageNumber * pageSize;
+        if (from >= products.size()) {
+            return List.of();
+        }
+        return products.subList((int) from, (int) Math.min(products.size(), from + pageSize));
+    }
+
+    /**
+     * Productos con id mayor al cursor, ordenados por id
+     * @param cursor Id del último producto leído, o null para empezar desde el principio
+     * @param limit Cantidad máxima de productos
+     * @return Página de productos y el cursor para la siguiente
+     */
+
+    public CursorPage after(Integer cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("el límite debe ser positivo");
+        }
+        List<Product> sorted = sortedById();
+        int from = cursor == null ? 0 : firstAfter(sorted, cursor);
+        int to = Math.min(sorted.size(), from + limit);
+        List<Product> page = sorted.subList(from, to);
+        Integer next = to < sorted.size() ? page.get(page.size() - 1).getId() : null;
+        return new CursorPage(page, next);
+    }
+
+    /**
+     * Productos ordenados por id, se ordenan la primera vez que se piden y se reutilizan en esta versión
+     */
+
+    private List<Product> sortedById() {
+        List<Product> sorted = byId;
+        if (sorted == null) {
+            Product[] array = products.toArray(new Product[0]);
+            Arrays.sort(array, Comparator.comparingInt(Product::getId));
+            sorted = Collections.unmodifiableList(Arrays.asList(array));
+            byId = sorted;
+        }
+        return sorted;
+    }
+
+    private static int firstAfter(List<Product> sorted, int cursor) {
+        int low = 0;
+        int high = sorted.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted.get(mid).getId() <= cursor) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,320 @@
+package service.products;
+
+import model.Money;
+import model.Product;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Carga el catálogo desde un archivo CSV con el formato id;name;description;price;stock
+ * El archivo se divide en bloques que terminan en un salto de línea y cada bloque se procesa en paralelo
+ * en un ForkJoinPool, las columnas se leen directamente de los bytes sin split ni expresiones regulares
+ * Las filas inválidas no se descartan en silencio, se devuelven con su número de línea y el motivo
+ */
+
+public class CsvCatalogLoader {
+
+    /**
+     * Tamaño mínimo de cada bloque, por debajo de esto dividir el archivo cuesta más de lo que se gana
+     */
+
+    private static final int MIN_CHUNK_BYTES = 256 * 1024;
+    private static final int COLUMNS = 5;
+
+    /**
+     * El archivo se carga completo en un arreglo de bytes, este es el tamaño máximo de un arreglo en Java
+     * Un catálogo más grande hay que convertirlo con BinaryCatalog y abrirlo con MappedProductManager
+     */
+
+    static final int MAX_FILE_BYTES = Integer.MAX_VALUE - 8;
+
+    private final ForkJoinPool pool;
+
+    public CsvCatalogLoader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public CsvCatalogLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Fila del CSV que no se pudo convertir en producto
+     * @param lineNumber Número de línea dentro del archivo, empezando en 1 (la cabecera)
+     * @param reason Motivo por el que se rechazó
+     * @param line Contenido de la línea
+     */
+
+    public record RejectedRow(long lineNumber, String reason, String line) {
+    }
+
+    /**
+     * Resultado de la carga, los productos se devuelven en el mismo orden del archivo
+     */
+
+    public record Result(List<Product> products, List<RejectedRow> rejectedRows) {
+    }
+
+    /**
+     * Carga el catálogo desde un archivo
+     * @param path Ruta del archivo CSV
+     * @return Productos leídos y filas rechazadas
+     * @throws IOException si no se puede leer el archivo o mide más de MAX_FILE_BYTES
+     */
+
+    public Result load(Path path) throws IOException {
+        long size = Files.size(path);
+        if (size > MAX_FILE_BYTES) {
+            throw tooLarge(path + " mide " + size + " bytes");
+        }
+        return load(Files.readAllBytes(path));
+    }
+
+    /**
+     * Carga el catálogo desde un flujo, que se cierra al terminar de leerlo
+     * @param inputStream Contenido del archivo CSV
+     * @return Productos leídos y filas rechazadas
+     * @throws IOException si no se puede leer el flujo o tiene más de MAX_FILE_BYTES
+     */
+
+    public Result load(InputStream inputStream) throws IOException {
+        try (inputStream) {
+            byte[] data = inputStream.readNBytes(MAX_FILE_BYTES);
+            if (data.length == MAX_FILE_BYTES && inputStream.read() >= 0) {
+                throw tooLarge("leído tiene más de " + MAX_FILE_BYTES + " bytes");
+            }
+            return load(data);
+        }
+    }
+
+    private static IOException tooLarge(String detail) {
+        return new IOException("El catálogo " + detail + ", el máximo para un CSV es " + MAX_FILE_BYTES
+                + " bytes; para catálogos más grandes hay que usar BinaryCatalog y MappedProductManager");
+    }
+
+    /**
+     * Carga el catálogo desde el contenido del archivo, la primera línea es la cabecera y se ignora
+     * @param data Contenido del archivo en UTF-8
+     * @return Productos leídos y filas rechazadas
+     */
+
+    public Result load(byte[] data) {
+        int start = indexOf(data, 0, data.length, (byte) '\n');
+        if (start < 0) {
+            return new Result(List.of(), List.of());
+        }
+        start++;
+
+        int chunks = Math.max(1, Math.min(pool.getParallelism() * 4, (data.length - start) / MIN_CHUNK_BYTES));
+        List<ChunkTask> tasks = new ArrayList<>(chunks);
+        int chunkSize = (data.length - start) / chunks;
+        int from = start;
+        for (int i = 0; i < chunks && from < data.length; i++) {
+            int to = i == chunks - 1 ? data.length : nextLineStart(data, from + chunkSize);
+            tasks.add(new ChunkTask(data, from, to));
+            from = to;
+        }
+
+        List<Chunk> parsed = tasks.size() == 1
+                ? List.of(tasks.get(0).compute())
+                : pool.invoke(new AllChunksTask(tasks));
+
+        int total = 0;
+        for (Chunk chunk : parsed) {
+            total += chunk.products.size();
+        }
+
+        List<Product> products = new ArrayList<>(total);
+        List<RejectedRow> rejected = new ArrayList<>();
+        long firstLine = 2;
+        for (Chunk chunk : parsed) {
+            products.addAll(chunk.products);
+            for (RejectedRow row : chunk.rejected) {
+                rejected.add(new RejectedRow(firstLine + row.lineNumber(), row.reason(), row.line()));
+            }
+            firstLine += chunk.lines;
+        }
+        return new Result(products, rejected);
+    }
+
+    private static int nextLineStart(byte[] data, int from) {
+        int newline = indexOf(data, from, data.length, (byte) '\n');
+        return newline < 0 ? data.length : newline + 1;
+    }
+
+    private static int indexOf(byte[] data, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Productos y filas rechazadas de un bloque, los números de línea son relativos al inicio del bloque
+     */
+
+    private record Chunk(List<Product> products, List<RejectedRow> rejected, long lines) {
+    }
+
+    /**
+     * Las tareas solo viven durante la carga y nunca se serializan, aunque RecursiveTask sea Serializable
+     */
+
+    @SuppressWarnings("serial")
+    private static final class AllChunksTask extends RecursiveTask<List<Chunk>> {
+        private final List<ChunkTask> tasks;
+
+        AllChunksTask(List<ChunkTask> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected List<Chunk> compute() {
+            invokeAll(tasks);
+            List<Chunk> chunks = new ArrayList<>(tasks.size());
+            for (ChunkTask task : tasks) {
+                chunks.add(task.join());
+            }
+            return chunks;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class ChunkTask extends RecursiveTask<Chunk> {
+        private final byte[] data;
+        private final int from;
+        private final int to;
+        private final AsciiView view;
+
+        ChunkTask(byte[] data, int from, int to) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.view = new AsciiView(data);
+        }
+
+        @Override
+        protected Chunk compute() {
+            List<Product> products = new ArrayList<>(Math.max(16, (to - from) / 64));
+            List<RejectedRow> rejected = new ArrayList<>();
+            int[] separators = new int[COLUMNS - 1];
+            long line = 0;
+
+            int lineStart = from;
+            while (lineStart < to) {
+                int lineEnd = indexOf(data, lineStart, to, (byte) '\n');
+                int next = lineEnd < 0 ? to : lineEnd + 1;
+                if (lineEnd < 0) {
+                    lineEnd = to;
+                }
+                if (lineEnd > lineStart && data[lineEnd - 1] == '\r') {
+                    lineEnd--;
+                }
+
+                if (lineEnd > lineStart) {
+                    Product product = parseLine(lineStart, lineEnd, separators, line, rejected);
+                    if (product != null) {
+                        products.add(product);
+                    }
+                }
+                line++;
+                lineStart = next;
+            }
+            return new Chunk(products, rejected, line);
+        }
+
+        private Product parseLine(int start, int end, int[] separators, long line, List<RejectedRow> rejected) {
+            int count = 0;
+            for (int i = start; i < end; i++) {
+                if (data[i] == ';') {
+                    if (count == separators.length) {
+                        count++;
+                        break;
+                    }
+                    separators[count++] = i;
+                }
+            }
+            if (count != COLUMNS - 1) {
+                rejected.add(reject(line, "se esperaban " + COLUMNS + " columnas", start, end));
+                return null;
+            }
+
+            int id;
+            long price;
+            int stock;
+            try {
+                id = Integer.parseInt(view, start, separators[0], 10);
+            } catch (NumberFormatException e) {
+                rejected.add(reject(line, "id inválido", start, end));
+                return null;
+            }
+            try {
+                price = Money.parse(view, separators[2] + 1, separators[3]);
+            } catch (NumberFormatException | ArithmeticException e) {
+                rejected.add(reject(line, "precio inválido", start, end));
+                return null;
+            }
+            try {
+                stock = Integer.parseInt(view, separators[3] + 1, end, 10);
+            } catch (NumberFormatException e) {
+                rejected.add(reject(line, "stock inválido", start, end));
+                return null;
+            }
+            if (price < 0 || stock < 0) {
+                rejected.add(reject(line, "precio o stock negativo", start, end));
+                return null;
+            }
+
+            String name = new String(data, separators[0] + 1, separators[1] - separators[0] - 1, StandardCharsets.UTF_8);
+            String description = new String(data, separators[1] + 1, separators[2] - separators[1] - 1, StandardCharsets.UTF_8);
+            return new Product(id, name, description, price, stock);
+        }
+
+        private RejectedRow reject(long line, String reason, int start, int end) {
+            return new RejectedRow(line, reason, new String(data, start, end - start, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Permite leer los números directamente del arreglo de bytes como si fuera texto, sin crear substrings
+     * Solo es válido para las columnas numéricas, que siempre son ASCII
+     */
+
+    private static final class AsciiView implements CharSequence {
+        private final byte[] data;
+
+        AsciiView(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int length() {
+            return data.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (data[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return new String(data, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -1,35 +1,105 @@
 package service.products;
 
+import model.Money;
 import model.Product;
+import util.FileWatcher;
+import util.IntHashMap;
 
-import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Esta clase maneja los productos ya manejados en un archivo CSV
  */
 
-public class InFileProductManager implements ProductRepository {
+public class InFileProductManager implements ProductRepository, AutoCloseable {
 
     /**
      * 1. Singleton, nos permite que la clase solo se pueda instanciar una vez
-     * 2. Lista que almacena los productos cargados desde un archivo CSV
+     * 2. Catálogo vigente: lista de productos, indice por id, índice de búsqueda e índice por precio y disponibilidad,
+     *    se reemplaza completo al recargar el archivo,
+     *    quien lo lee siempre ve una versión entera del catálogo, nunca una a medio cargar
      * 3. Direccion del archivo CSV, que se encuentra en la carpeta resources
+     * 4. Columna con el stock de todos los productos, cada producto lee su stock de su posición en la columna
+     *    y las reservas se hacen con compareAndSet, por lo que muchos hilos pueden reservar stock sin candados
+     *    Al recargar el catálogo los productos conservan su posición, así no se pierden las reservas
+     *    Un producto que se quita del archivo conserva también su posición, así los carritos que lo tienen pueden
+     *    quitarlo y devolver su stock, y si el producto vuelve al archivo recupera la misma posición
+     * 5. Registro opcional que guarda el stock en el disco, sin él el stock vuelve al del CSV en cada reinicio
+     * 6. Hilo que vigila el archivo del catálogo y lo recarga cuando cambia
      */
 
     private static final InFileProductManager INSTANCE = new InFileProductManager(); // 1. ...
-    private final List<Product> product = new ArrayList<>(); // 2. ...
+    private volatile Catalog catalog = new Catalog(new CatalogView(0, List.of(), true), new IntHashMap<>(), List.of(),
+            new ProductSearchIndex(List.of()), new PriceIndex(List.of(), position -> 0, slot -> 0)); // 2. ...
     private static final String PATH_FILE = "products.csv"; // 3. ...
+    private final StockColumn stock = new StockColumn(); // 4. ...
+    private volatile StockLedger ledger; // 5. ...
+    private FileWatcher watcher; // 6. ...
+    private static final int MAX_REPORTED_ROWS = 20;
+    private static final long STOCK_FLUSH_INTERVAL_MILLIS = 200;
+
+    /**
+     * Versión del catálogo, no se modifica después de publicarse
+     * productsById incluye los productos quitados del archivo, marcados como eliminados, que además se listan
+     * en removed; no aparecen en la vista ni en los índices y no se pueden reservar
+     */
+
+    private record Catalog(CatalogView view, IntHashMap<Product> productsById, List<ColumnProduct> removed,
+                           ProductSearchIndex searchIndex, PriceIndex priceIndex) {
+    }
+
+    /**
+     * Resultado de una recarga del catálogo
+     */
+
+    public record ReloadSummary(int added, int updated, int removed, int unchanged, int rejected) {
+    }
 
     /**
      * Constructor privado, esto permite no crear más de una instancia de esta clase
      */
 
     private InFileProductManager() {
-        loadProducts();
+        this(InFileProductManager.class.getClassLoader().getResourceAsStream(PATH_FILE));
+    }
+
+    /**
+     * Crea un catálogo independiente del singleton, la aplicación nunca lo usa, solo las pruebas de rendimiento
+     * @param csv Contenido CSV con el mismo formato de products.csv, se cierra al terminar de leerlo
+     * @return Catálogo nuevo
+     */
+
+    public static InFileProductManager isolated(InputStream csv) {
+        return new InFileProductManager(csv);
+    }
+
+    /**
+     * Crea un catálogo independiente del singleton leyendo un archivo CSV del disco, solo para pruebas de rendimiento
+     * @param csvFile Ruta del archivo CSV con el mismo formato de products.csv
+     * @return Catálogo nuevo
+     * @throws IOException si no se puede leer el archivo
+     */
+
+    public static InFileProductManager isolated(Path csvFile) throws IOException {
+        return new InFileProductManager(csvFile);
+    }
+
+    private InFileProductManager(InputStream csv) {
+        try {
+            loadProducts(new CsvCatalogLoader().load(csv));
+        } catch (Exception e) {
+            System.err.println("Error al cargar los productos: " + e.getMessage());
+        }
+    }
+
+    private InFileProductManager(Path csvFile) throws IOException {
+        loadProducts(new CsvCatalogLoader().load(csvFile));
     }
 
     /**
@@ -48,21 +118,50 @@ public class InFileProductManager implements ProductRepository {
 
     @Override
     public List<Product> getProduct() {
-        return product;
+        return catalog.view().products();
+    }
+
+    @Override
+    public CatalogView getCatalog() {
+        return catalog.view();
     }
 
     /**
      * Obtiene un producto, proporcionando simplemente su Id
      * @param id Corresponde al id del producto que se quiere buscar
-     * @return Producto encontrado por el sistema, o null en el caso de no encontrarlo
+     * @return Producto encontrado por el sistema, o null en el caso de no encontrarlo o si se quitó del catálogo
      */
 
     @Override
     public Product findProductById(Integer id) {
-        return product.stream().filter(
-                        p -> p.getId().equals(id))
-                .findFirst()
-                .orElse(null);
+        ColumnProduct item = columnProduct(id);
+        return item != null && !item.removed ? item : null;
+    }
+
+    /**
+     * Busca productos por su nombre y descripción en el índice de la versión vigente del catálogo
+     * @param query Palabras buscadas
+     * @param limit Cantidad máxima de resultados
+     * @return Productos encontrados, del más relevante al menos relevante
+     */
+
+    @Override
+    public List<Product> search(String query, int limit) {
+        return catalog.searchIndex().search(query, limit);
+    }
+
+    /**
+     * Busca productos por rango de precio usando el índice por precio de la versión vigente del catálogo
+     * @param minPrice Precio mínimo en centavos, incluido
+     * @param maxPrice Precio máximo en centavos, incluido
+     * @param inStockOnly True para devolver solo productos con stock
+     * @param limit Cantidad máxima de productos
+     * @return Productos ordenados por precio de menor a mayor
+     */
+
+    @Override
+    public List<Product> findByPrice(long minPrice, long maxPrice, boolean inStockOnly, int limit) {
+        return catalog.priceIndex().range(minPrice, maxPrice, inStockOnly, limit);
     }
 
     /**
@@ -74,49 +173,283 @@ public class InFileProductManager implements ProductRepository {
 
     @Override
     public void updateStock(Integer id, Integer quantity) {
-        for (Product item : product) {
-            if (item.getId().equals(id)) {
-                if (quantity < 0) {
-                    return;
-                }
-                item.setStock(quantity);
-                return;
-            }
+        ColumnProduct item = columnProduct(id);
+        if (item == null || item.removed || quantity == null || quantity < 0) {
+            return;
+        }
+        stock.set(item.slot, quantity);
+    }
+
+    @Override
+    public boolean tryReserve(Integer id, Integer quantity) {
+        ColumnProduct item = columnProduct(id);
+        if (item == null || item.removed || quantity == null || quantity <= 0) {
+            return false;
+        }
+        return stock.tryDecrement(item.slot, quantity);
+    }
+
+    /**
+     * Devuelve stock reservado, también a los productos que se quitaron del catálogo mientras estaban en un carrito
+     */
+
+    @Override
+    public void release(Integer id, Integer quantity) {
+        ColumnProduct item = columnProduct(id);
+        if (item == null || quantity == null || quantity <= 0) {
+            return;
+        }
+        stock.increment(item.slot, quantity);
+    }
+
+    /**
+     * Guarda el stock en un StockLedger dentro del directorio indicado, así sobrevive a los reinicios
+     * Al llamarlo se carga el último stock guardado, por eso debe usarse al iniciar, antes de reservar stock
+     * Los cambios se guardan en segundo plano en lotes, las reservas nunca esperan al disco
+     * @param directory Directorio donde se guarda el stock
+     * @throws IOException si no se puede leer o abrir el registro
+     */
+
+    public synchronized void persistStock(Path directory) throws IOException {
+        if (ledger != null) {
+            return;
+        }
+        ledger = new StockLedger(directory, stock, idsBySlot(), STOCK_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Guarda ahora los cambios de stock pendientes, sin esperar al siguiente lote del registro
+     */
+
+    @Override
+    public void flushStock() throws IOException {
+        StockLedger current = ledger;
+        if (current != null) {
+            current.flush();
         }
     }
 
     /**
-     * Carga los productos desde un archivo CSV
+     * Vuelve a leer el archivo del catálogo y reemplaza el catálogo vigente
+     * El archivo se procesa antes de tomar el candado, las reservas y las búsquedas siguen mientras tanto
+     * @param csvFile Ruta del archivo CSV con el mismo formato de products.csv
+     * @return Cantidad de productos agregados, modificados, eliminados y sin cambios
+     * @throws IOException si no se puede leer el archivo, en ese caso el catálogo vigente no cambia
+     */
+
+    public ReloadSummary reload(Path csvFile) throws IOException {
+        CsvCatalogLoader.Result result = new CsvCatalogLoader().load(csvFile);
+        return loadProducts(result);
+    }
+
+    /**
+     * Vigila el archivo del catálogo en un hilo en segundo plano y lo recarga cada vez que cambia
+     * Para que nunca se lea un archivo a medio escribir conviene reemplazarlo con un rename,
+     * además se espera un momento después de cada cambio para que terminen las escrituras
+     * @param csvFile Ruta del archivo CSV que se quiere vigilar
+     */
+
+    public synchronized void watch(Path csvFile) {
+        if (watcher != null) {
+            return;
+        }
+        watcher = FileWatcher.start(csvFile, "catalog-watcher", "el catálogo", file -> {
+            ReloadSummary summary = reload(file);
+            System.out.println("Catálogo recargado: " + summary.added() + " agregados, "
+                    + summary.updated() + " modificados, " + summary.removed() + " eliminados");
+        });
+    }
+
+    /**
+     * Deja de vigilar el catálogo, guarda los últimos cambios de stock y cierra el registro, si se estaba usando uno
+     */
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+        if (ledger != null) {
+            ledger.close();
+            ledger = null;
+        }
+    }
+
+    /**
+     * Producto con ese id, incluido si se quitó del catálogo
+     */
+
+    private ColumnProduct columnProduct(Integer id) {
+        if (id == null) {
+            return null;
+        }
+        return (ColumnProduct) catalog.productsById().get(id);
+    }
+
+    /**
+     * El stock de una posición se agotó o volvió a estar disponible, se actualiza el índice de la versión vigente
+     */
+
+    private void availabilityChanged(int slot) {
+        catalog.priceIndex().refresh(slot);
+    }
+
+    /**
+     * Id del producto de cada posición de la columna, incluidos los que se quitaron del catálogo,
+     * -1 en las posiciones que ya no usa ningún producto
+     */
+
+    private int[] idsBySlot() {
+        Catalog current = catalog;
+        int[] idsBySlot = new int[stock.size()];
+        Arrays.fill(idsBySlot, -1);
+        for (Product loaded : current.view().products()) {
+            idsBySlot[((ColumnProduct) loaded).slot] = loaded.getId();
+        }
+        for (ColumnProduct removed : current.removed()) {
+            idsBySlot[removed.slot] = removed.getId();
+        }
+        return idsBySlot;
+    }
+
+    /**
+     * Carga los productos desde un archivo CSV usando CsvCatalogLoader
      * Ignora la primera línea que es la que trae la información del archivo, para nuestro caso:
      * id;name;description;price;stock
-     * Obtiene los 5 datos que corresponden a cada producto y los guarda en una lista
+     * Si el id está repetido, el catálogo se queda con los datos de la última fila leída en la posición de la primera
+     * Se compara cada producto con el del catálogo vigente: los productos sin cambios se reutilizan, los modificados
+     * conservan su posición en la columna de stock y los nuevos reciben una posición nueva
+     * Los productos que ya no están en el archivo se conservan marcados como eliminados con su posición, si vuelven
+     * a aparecer en otra recarga recuperan esa posición y el stock que tenía
+     * Si cambió el stock del archivo, se suma la diferencia al stock actual, así se conservan las reservas
+     * Los índices de búsqueda y por precio se construyen de nuevo para cada versión, después de publicar la versión
+     * se recalcula la disponibilidad por si algún stock pasó por 0 mientras se construía
+     * El catálogo nuevo se publica de una sola vez, quien lee el catálogo ve la versión anterior o la nueva completa
+     * Las filas rechazadas se informan por la salida de errores con su número de línea
      */
 
-    private void loadProducts() {
-        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(PATH_FILE);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
+    private synchronized ReloadSummary loadProducts(CsvCatalogLoader.Result result) {
+        Catalog current = catalog;
+        IntHashMap<Product> rows = new IntHashMap<>();
+        for (Product loaded : result.products()) {
+            rows.put(loaded.getId(), loaded);
+        }
 
-            String line;
-            boolean firstLine = true;
+        List<Product> products = new ArrayList<>(rows.size());
+        IntHashMap<Product> productsById = new IntHashMap<>();
+        int added = 0;
+        int updated = 0;
+        int unchanged = 0;
+        for (Product row : result.products()) {
+            if (productsById.containsKey(row.getId())) {
+                continue;
+            }
+            Product loaded = rows.get(row.getId());
 
-            while ((line = reader.readLine()) != null) {
-                if (firstLine) {
-                    firstLine = false;
-                    continue;
+            ColumnProduct previous = (ColumnProduct) current.productsById().get(loaded.getId());
+            ColumnProduct item;
+            if (previous == null) {
+                item = new ColumnProduct(loaded, stock.add(loaded.getStock()), stock, loaded.getStock(), false);
+                added++;
+            } else if (!previous.removed && previous.sameAs(loaded)) {
+                item = previous;
+                unchanged++;
+            } else {
+                if (previous.fileStock != loaded.getStock()) {
+                    stock.adjust(previous.slot, loaded.getStock() - previous.fileStock);
                 }
-                String[] data = line.split(";");
-                if (data.length == 5) {
-                    product.add(new Product(
-                            Integer.parseInt(data[0]),
-                            data[1],
-                            data[2],
-                            Double.parseDouble(data[3]),
-                            Integer.parseInt(data[4])
-                    ));
+                item = new ColumnProduct(loaded, previous.slot, stock, loaded.getStock(), false);
+                if (previous.removed) {
+                    added++;
+                } else {
+                    updated++;
                 }
             }
-        } catch (Exception e) {
-            System.err.println("Error al cargar los productos: " + e.getMessage());
+            products.add(item);
+            productsById.put(item.getId(), item);
+        }
+
+        List<ColumnProduct> removed = new ArrayList<>();
+        for (ColumnProduct tombstone : current.removed()) {
+            if (!productsById.containsKey(tombstone.getId())) {
+                removed.add(tombstone);
+            }
+        }
+        int removedNow = 0;
+        for (Product listed : current.view().products()) {
+            if (!productsById.containsKey(listed.getId())) {
+                ColumnProduct previous = (ColumnProduct) listed;
+                removed.add(new ColumnProduct(previous, previous.slot, stock, previous.fileStock, true));
+                removedNow++;
+            }
+        }
+        for (ColumnProduct tombstone : removed) {
+            productsById.put(tombstone.getId(), tombstone);
+        }
+
+        List<Product> published = Collections.unmodifiableList(products);
+        CatalogView view = new CatalogView(current.view().version() + 1, published, false);
+        PriceIndex priceIndex = new PriceIndex(published, position -> ((ColumnProduct) published.get(position)).slot, stock::get);
+        catalog = new Catalog(view, productsById, List.copyOf(removed), new ProductSearchIndex(published), priceIndex);
+        stock.setAvailabilityListener(this::availabilityChanged);
+        priceIndex.refreshAll();
+        if (ledger != null) {
+            ledger.track(idsBySlot());
+        }
+
+        List<CsvCatalogLoader.RejectedRow> rejected = result.rejectedRows();
+        for (int i = 0; i < Math.min(rejected.size(), MAX_REPORTED_ROWS); i++) {
+            CsvCatalogLoader.RejectedRow row = rejected.get(i);
+            System.err.println("Línea " + row.lineNumber() + " del catálogo rechazada (" + row.reason() + "): " + row.line());
+        }
+        if (rejected.size() > MAX_REPORTED_ROWS) {
+            System.err.println("... y otras " + (rejected.size() - MAX_REPORTED_ROWS) + " líneas rechazadas");
+        }
+
+        return new ReloadSummary(added, updated, removedNow, unchanged, rejected.size());
+    }
+
+    /**
+     * Producto cuyo stock vive en la columna de stock, en la posición que se le asignó al cargarlo
+     * Guarda también el stock que tenía el archivo, para saber si cambió al recargar el catálogo,
+     * y si se quitó del archivo
+     */
+
+    private static final class ColumnProduct extends Product {
+        private final int slot;
+        private final StockColumn stock;
+        private final int fileStock;
+        private final boolean removed;
+
+        ColumnProduct(Product product, int slot, StockColumn stock, int fileStock, boolean removed) {
+            super(product.getId(), product.getName(), product.getDescription(), product.getPrice(), 0);
+            this.slot = slot;
+            this.stock = stock;
+            this.fileStock = fileStock;
+            this.removed = removed;
+        }
+
+        boolean sameAs(Product loaded) {
+            return fileStock == loaded.getStock()
+                    && getPrice() == loaded.getPrice()
+                    && getName().equals(loaded.getName())
+                    && getDescription().equals(loaded.getDescription());
+        }
+
+        @Override
+        public Integer getStock() {
+            return stock.get(slot);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return stock.get(slot) > 0;
+        }
+
+        @Override
+        public void setStock(Integer quantity) {
+            stock.set(slot, quantity);
         }
     }
-}
\ No newline at end of file
+}
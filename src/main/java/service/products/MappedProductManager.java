@@ -0,0 +1,352 @@
+package service.products;
+
+import model.Product;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Repositorio de productos que trabaja directamente sobre un catálogo en formato BinaryCatalog mapeado en memoria
+ * Abrir el catálogo solo mapea el archivo, los datos de cada producto se leen por posición cuando se piden,
+ * así el uso de memoria del heap no crece con el tamaño del catálogo
+ * El stock se modifica directamente en el archivo mapeado con operaciones atómicas
+ * Los índices de búsqueda y de precios sí viven en el heap, se construyen en la primera consulta que los usa
+ * Los registros y los textos se mapean con MappedRegion y se recorren con posiciones long, así el catálogo
+ * no tiene el límite de 2 GiB de un solo MappedByteBuffer
+ */
+
+public class MappedProductManager implements ProductRepository, AutoCloseable {
+
+    /**
+     * Permite leer y hacer compareAndSet sobre enteros del archivo mapeado, el stock siempre está alineado a 4 bytes
+     */
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private final FileChannel channel;
+    private final MappedRegion records;
+    private final MappedRegion strings;
+    private final int count;
+    private final List<Product> products;
+    private final CatalogView catalog;
+
+    /**
+     * Los índices de búsqueda y de precios ocupan memoria del heap proporcional al catálogo, por eso no se
+     * construyen al abrirlo sino en la primera búsqueda o consulta por precio que los necesita
+     * Un repositorio que solo busca por id y cambia stock nunca los construye
+     */
+
+    private volatile ProductSearchIndex searchIndex;
+    private volatile PriceIndex priceIndex;
+
+    /**
+     * Abre un catálogo binario, los cambios de stock se escriben en el mismo archivo
+     * Antes de mapear nada se revisan la cabecera y que el tamaño del archivo coincida con ella
+     * @param file Archivo generado con BinaryCatalog.write
+     * @throws IOException si no se puede abrir el archivo, no tiene el formato esperado o está incompleto
+     */
+
+    public MappedProductManager(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long fileSize = channel.size();
+            if (fileSize < BinaryCatalog.HEADER_BYTES) {
+                throw new IOException("El archivo " + file + " no es un catálogo binario válido");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BinaryCatalog.HEADER_BYTES);
+            if (header.getInt(0) != BinaryCatalog.MAGIC) {
+                throw new IOException("El archivo " + file + " no es un catálogo binario válido");
+            }
+            if (header.getInt(4) != BinaryCatalog.VERSION) {
+                throw new IOException("El catálogo " + file + " tiene la versión " + header.getInt(4)
+                        + ", hay que volver a generarlo con BinaryCatalog");
+            }
+            this.count = header.getInt(8);
+            long stringsOffset = header.getLong(16);
+            long stringsLength = header.getLong(24);
+            if (count < 0 || stringsLength < 0
+                    || stringsOffset != BinaryCatalog.HEADER_BYTES + (long) count * BinaryCatalog.RECORD_BYTES
+                    || stringsOffset + stringsLength != fileSize) {
+                throw new IOException("El catálogo " + file + " está incompleto o dañado");
+            }
+
+            this.records = new MappedRegion(channel, FileChannel.MapMode.READ_WRITE, BinaryCatalog.HEADER_BYTES,
+                    (long) count * BinaryCatalog.RECORD_BYTES);
+            this.strings = new MappedRegion(channel, FileChannel.MapMode.READ_ONLY, stringsOffset, stringsLength);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        this.products = new ProductList();
+        this.catalog = new CatalogView(1, products, true);
+    }
+
+    /**
+     * Vista de solo lectura del catálogo, cada producto se lee del archivo al pedirlo
+     * @return Lista de productos ordenada por id
+     */
+
+    @Override
+    public List<Product> getProduct() {
+        return products;
+    }
+
+    /**
+     * El archivo no cambia mientras está abierto, por eso siempre es la misma versión, ya ordenada por id
+     */
+
+    @Override
+    public CatalogView getCatalog() {
+        return catalog;
+    }
+
+    @Override
+    public List<Product> search(String query, int limit) {
+        return searchIndex().search(query, limit);
+    }
+
+    @Override
+    public List<Product> findByPrice(long minPrice, long maxPrice, boolean inStockOnly, int limit) {
+        return priceIndex().range(minPrice, maxPrice, inStockOnly, limit);
+    }
+
+    private ProductSearchIndex searchIndex() {
+        ProductSearchIndex index = searchIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = searchIndex;
+                if (index == null) {
+                    index = new ProductSearchIndex(products);
+                    searchIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Construye el índice de precios la primera vez que se pide
+     * Los cambios de stock que ocurren mientras se construye no lo ven todavía, por eso después de publicarlo
+     * se recalculan todos los bits; desde ahí cada cambio que pasa por 0 lo actualiza con refresh
+     */
+
+    private PriceIndex priceIndex() {
+        PriceIndex index = priceIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = priceIndex;
+                if (index == null) {
+                    index = new PriceIndex(products, position -> position, slot -> stockOf(slot));
+                    priceIndex = index;
+                    index.refreshAll();
+                }
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public Product findProductById(Integer id) {
+        if (id == null) {
+            return null;
+        }
+        int slot = slotOf(id);
+        return slot < 0 ? null : new MappedProduct(slot);
+    }
+
+    @Override
+    public void updateStock(Integer id, Integer quantity) {
+        int slot = id == null ? -1 : slotOf(id);
+        if (slot < 0 || quantity == null || quantity < 0) {
+            return;
+        }
+        setStock(slot, quantity);
+    }
+
+    @Override
+    public boolean tryReserve(Integer id, Integer quantity) {
+        int slot = id == null ? -1 : slotOf(id);
+        if (slot < 0 || quantity == null || quantity <= 0) {
+            return false;
+        }
+
+        long position = stockPosition(slot);
+        ByteBuffer chunk = records.chunk(position);
+        int offset = MappedRegion.offset(position);
+        while (true) {
+            int stock = (int) INT.getVolatile(chunk, offset);
+            if (stock < quantity) {
+                return false;
+            }
+            if (INT.compareAndSet(chunk, offset, stock, stock - quantity)) {
+                crossed(slot, stock, stock - quantity);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void release(Integer id, Integer quantity) {
+        int slot = id == null ? -1 : slotOf(id);
+        if (slot < 0 || quantity == null || quantity <= 0) {
+            return;
+        }
+        long position = stockPosition(slot);
+        int previous = (int) INT.getAndAdd(records.chunk(position), MappedRegion.offset(position), (int) quantity);
+        crossed(slot, previous, previous + quantity);
+    }
+
+    /**
+     * Escribe en el disco los cambios de stock que todavía estén solo en memoria
+     */
+
+    @Override
+    public void flushStock() {
+        records.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushStock();
+        channel.close();
+    }
+
+    /**
+     * Busca la posición de un producto con búsqueda binaria sobre los registros ordenados por id
+     * @return Posición del registro, o -1 si no existe
+     */
+
+    private int slotOf(int id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = records.getInt(recordPosition(mid) + BinaryCatalog.ID_OFFSET);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private void setStock(int slot, int stock) {
+        long position = stockPosition(slot);
+        int previous = (int) INT.getAndSet(records.chunk(position), MappedRegion.offset(position), stock);
+        crossed(slot, previous, stock);
+    }
+
+    /**
+     * Si el stock pasó por 0 se actualiza el índice de disponibilidad, si todavía no se construyó no hay nada que actualizar
+     */
+
+    private void crossed(int slot, int previous, int stock) {
+        PriceIndex index = priceIndex;
+        if (index != null && (previous > 0) != (stock > 0)) {
+            index.refresh(slot);
+        }
+    }
+
+    private int stockOf(int slot) {
+        long position = stockPosition(slot);
+        return (int) INT.getVolatile(records.chunk(position), MappedRegion.offset(position));
+    }
+
+    private static long recordPosition(int slot) {
+        return (long) slot * BinaryCatalog.RECORD_BYTES;
+    }
+
+    private static long stockPosition(int slot) {
+        return recordPosition(slot) + BinaryCatalog.STOCK_OFFSET;
+    }
+
+    /**
+     * Lee un texto del producto, la descripción empieza justo donde termina el nombre
+     */
+
+    private String readString(int slot, boolean description) {
+        long base = recordPosition(slot);
+        long position = records.getLong(base + BinaryCatalog.NAME_OFFSET);
+        int nameLength = records.getInt(base + BinaryCatalog.NAME_LENGTH_OFFSET);
+        byte[] bytes;
+        if (description) {
+            position += nameLength;
+            bytes = new byte[records.getInt(base + BinaryCatalog.DESCRIPTION_LENGTH_OFFSET)];
+        } else {
+            bytes = new byte[nameLength];
+        }
+        strings.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Producto que no guarda datos propios, cada getter lee su campo del archivo mapeado
+     */
+
+    private final class MappedProduct extends Product {
+        private final int slot;
+
+        MappedProduct(int slot) {
+            super(null, null, null, 0, null);
+            this.slot = slot;
+        }
+
+        @Override
+        public Integer getId() {
+            return records.getInt(recordPosition(slot) + BinaryCatalog.ID_OFFSET);
+        }
+
+        @Override
+        public Integer getStock() {
+            return stockOf(slot);
+        }
+
+        @Override
+        public String getName() {
+            return readString(slot, false);
+        }
+
+        @Override
+        public String getDescription() {
+            return readString(slot, true);
+        }
+
+        @Override
+        public long getPrice() {
+            return records.getLong(recordPosition(slot) + BinaryCatalog.PRICE_OFFSET);
+        }
+
+        @Override
+        public void setStock(Integer stock) {
+            MappedProductManager.this.setStock(slot, stock);
+        }
+    }
+
+    private final class ProductList extends AbstractList<Product> implements RandomAccess {
+        @Override
+        public Product get(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return new MappedProduct(index);
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+}
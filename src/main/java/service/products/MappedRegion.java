@@ -0,0 +1,92 @@
+package service.products;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Región de un archivo mapeada en memoria por partes, así puede ser más grande que los 2 GiB de un MappedByteBuffer
+ * Las posiciones son long y relativas al inicio de la región, cada parte mide 1 GiB salvo la última
+ * Como el tamaño de las partes es múltiplo del tamaño de los registros de BinaryCatalog, un campo de un registro
+ * nunca queda partido entre dos partes; los textos sí pueden quedar partidos y se copian por pedazos
+ */
+
+final class MappedRegion {
+
+    static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_BYTES = 1L << CHUNK_SHIFT;
+
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+
+    /**
+     * Mapea la región indicada del archivo
+     * @param channel Archivo abierto
+     * @param mode Modo del mapeo
+     * @param start Posición del inicio de la región en el archivo
+     * @param size Tamaño de la región en bytes
+     */
+
+    MappedRegion(FileChannel channel, FileChannel.MapMode mode, long start, long size) throws IOException {
+        this.size = size;
+        this.chunks = new MappedByteBuffer[(int) ((size + CHUNK_BYTES - 1) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < chunks.length; i++) {
+            long offset = (long) i << CHUNK_SHIFT;
+            chunks[i] = channel.map(mode, start + offset, Math.min(CHUNK_BYTES, size - offset));
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Parte que contiene la posición, junto con offset permite usar VarHandle sobre un campo de la región
+     */
+
+    ByteBuffer chunk(long position) {
+        return chunks[(int) (position >>> CHUNK_SHIFT)];
+    }
+
+    /**
+     * Posición dentro de su parte
+     */
+
+    static int offset(long position) {
+        return (int) (position & (CHUNK_BYTES - 1));
+    }
+
+    int getInt(long position) {
+        return chunk(position).getInt(offset(position));
+    }
+
+    long getLong(long position) {
+        return chunk(position).getLong(offset(position));
+    }
+
+    /**
+     * Copia bytes de la región, aunque empiecen en una parte y terminen en la siguiente
+     */
+
+    void get(long position, byte[] destination) {
+        int copied = 0;
+        while (copied < destination.length) {
+            long current = position + copied;
+            int offset = offset(current);
+            int length = (int) Math.min(destination.length - copied, CHUNK_BYTES - offset);
+            chunk(current).get(offset, destination, copied, length);
+            copied += length;
+        }
+    }
+
+    /**
+     * Escribe en el disco los cambios que todavía estén solo en memoria
+     */
+
+    void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+}
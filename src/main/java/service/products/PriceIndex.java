@@ -0,0 +1,175 @@
+package service.products;
+
+import model.Product;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Índices secundarios de una versión del catálogo para filtrar por precio y disponibilidad sin recorrerlo completo
+ * Los productos se guardan ordenados por precio, un rango de precios se encuentra con dos búsquedas binarias
+ * Junto a ese orden se guarda un bitset con un bit por producto que indica si tiene stock, en el mismo orden
+ * por precio, así los productos sin stock se saltan de a 64 y solo se recorren los que se devuelven
+ *
+ * El bitset se actualiza con refresh cada vez que el stock de un producto pasa por 0, en cualquier sentido
+ * Dos cambios simultáneos pueden escribir el bit en el orden contrario, por eso después de escribirlo se vuelve
+ * a leer el stock y se repite si ya no coincide: el último en terminar siempre deja el bit de acuerdo al stock
+ */
+
+public final class PriceIndex {
+
+    private final List<Product> products;
+    private final int[] positions;
+    private final long[] prices;
+    private final int[] slots;
+    private final int[] rankBySlot;
+    private final AtomicLongArray inStock;
+    private final IntUnaryOperator stockOfSlot;
+
+    /**
+     * @param products Productos de la versión, la lista no debe volver a modificarse
+     * @param slotOf Posición del stock de cada producto, según su posición en la lista
+     * @param stockOfSlot Stock actual de una posición de stock
+     */
+
+    public PriceIndex(List<Product> products, IntUnaryOperator slotOf, IntUnaryOperator stockOfSlot) {
+        this.products = products;
+        this.stockOfSlot = stockOfSlot;
+
+        int size = products.size();
+        long[] unsortedPrices = new long[size];
+        Integer[] order = new Integer[size];
+        int maxSlot = -1;
+        for (int position = 0; position < size; position++) {
+            unsortedPrices[position] = products.get(position).getPrice();
+            order[position] = position;
+            maxSlot = Math.max(maxSlot, slotOf.applyAsInt(position));
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(unsortedPrices[a], unsortedPrices[b]));
+
+        this.positions = new int[size];
+        this.prices = new long[size];
+        this.slots = new int[size];
+        this.rankBySlot = new int[maxSlot + 1];
+        Arrays.fill(rankBySlot, -1);
+        for (int rank = 0; rank < size; rank++) {
+            positions[rank] = order[rank];
+            prices[rank] = unsortedPrices[order[rank]];
+            slots[rank] = slotOf.applyAsInt(order[rank]);
+            rankBySlot[slots[rank]] = rank;
+        }
+
+        this.inStock = new AtomicLongArray((size + 63) >>> 6);
+        refreshAll();
+    }
+
+    /**
+     * Actualiza el bit de disponibilidad de una posición de stock, se llama cuando su stock pasa por 0
+     * @param slot Posición de stock, se ignora si no pertenece a esta versión del catálogo
+     */
+
+    public void refresh(int slot) {
+        int rank = slot >= 0 && slot < rankBySlot.length ? rankBySlot[slot] : -1;
+        if (rank < 0) {
+            return;
+        }
+        while (true) {
+            boolean available = stockOfSlot.applyAsInt(slot) > 0;
+            setBit(rank, available);
+            if ((stockOfSlot.applyAsInt(slot) > 0) == available) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Recalcula todos los bits a partir del stock actual, se usa al publicar una versión nueva del catálogo
+     * para corregir los cambios de stock que ocurrieron mientras se construía
+     */
+
+    public void refreshAll() {
+        for (int slot : slots) {
+            refresh(slot);
+        }
+    }
+
+    /**
+     * Productos con precio dentro del rango, ordenados por precio de menor a mayor
+     * @param minPrice Precio mínimo en centavos, incluido
+     * @param maxPrice Precio máximo en centavos, incluido
+     * @param inStockOnly True para devolver solo productos con stock
+     * @param limit Cantidad máxima de productos
+     * @return Productos encontrados
+     */
+
+    public List<Product> range(long minPrice, long maxPrice, boolean inStockOnly, int limit) {
+        if (limit <= 0 || minPrice > maxPrice) {
+            return List.of();
+        }
+        int from = firstRankAtLeast(minPrice);
+        int to = maxPrice == Long.MAX_VALUE ? prices.length : firstRankAtLeast(maxPrice + 1);
+
+        List<Product> result = new ArrayList<>(Math.min(limit, to - from));
+        if (!inStockOnly) {
+            for (int rank = from; rank < to && result.size() < limit; rank++) {
+                result.add(products.get(positions[rank]));
+            }
+            return result;
+        }
+        for (int rank = nextInStock(from, to); rank < to && result.size() < limit; rank = nextInStock(rank + 1, to)) {
+            result.add(products.get(positions[rank]));
+        }
+        return result;
+    }
+
+    private int firstRankAtLeast(long price) {
+        int low = 0;
+        int high = prices.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (prices[mid] < price) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Primer producto con stock desde una posición en el orden por precio, o to si no hay ninguno
+     */
+
+    private int nextInStock(int from, int to) {
+        if (from >= to) {
+            return to;
+        }
+        int word = from >>> 6;
+        long bits = inStock.get(word) & (-1L << (from & 63));
+        while (true) {
+            if (bits != 0) {
+                return Math.min(to, (word << 6) + Long.numberOfTrailingZeros(bits));
+            }
+            word++;
+            if (word << 6 >= to) {
+                return to;
+            }
+            bits = inStock.get(word);
+        }
+    }
+
+    private void setBit(int rank, boolean available) {
+        int word = rank >>> 6;
+        long mask = 1L << (rank & 63);
+        while (true) {
+            long current = inStock.get(word);
+            long updated = available ? current | mask : current & ~mask;
+            if (current == updated || inStock.compareAndSet(word, current, updated)) {
+                return;
+            }
+        }
+    }
+}
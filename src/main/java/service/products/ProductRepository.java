@@ -1,6 +1,7 @@
 package service.products;
 import model.Product;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -16,6 +17,33 @@ public interface ProductRepository {
 
     List<Product> getProduct();
 
+    /**
+     * Obtiene la versión vigente del catálogo, inmutable y con lectura por páginas o por cursor
+     * @return Vista del catálogo que se puede compartir entre hilos sin copiarla
+     */
+
+    CatalogView getCatalog();
+
+    /**
+     * Busca productos por su nombre y descripción, acepta prefijos y errores de tipeo
+     * @param query Palabras buscadas
+     * @param limit Cantidad máxima de resultados
+     * @return Productos encontrados, del más relevante al menos relevante
+     */
+
+    List<Product> search(String query, int limit);
+
+    /**
+     * Busca productos por rango de precio, sin recorrer todo el catálogo
+     * @param minPrice Precio mínimo en centavos, incluido
+     * @param maxPrice Precio máximo en centavos, incluido
+     * @param inStockOnly True para devolver solo productos con stock
+     * @param limit Cantidad máxima de productos
+     * @return Productos ordenados por precio de menor a mayor
+     */
+
+    List<Product> findByPrice(long minPrice, long maxPrice, boolean inStockOnly, int limit);
+
     /**
      * Busca el id de un producto, y si lo encuentra devuelve el producto
      * @param id Corresponde al id del producto que se quiere buscar
@@ -31,4 +59,31 @@ public interface ProductRepository {
      */
 
     void updateStock(Integer id, Integer quantity);
+
+    /**
+     * Reserva de forma atómica una cantidad del stock de un producto, descontándola solo si hay suficiente
+     * Dos reservas simultáneas nunca pueden dejar el stock en negativo
+     * @param id El id del producto que se quiere reservar
+     * @param quantity Cantidad que se quiere reservar, debe ser mayor a 0
+     * @return True si se ha reservado la cantidad, false si el producto no existe o no hay stock suficiente
+     */
+
+    boolean tryReserve(Integer id, Integer quantity);
+
+    /**
+     * Devuelve de forma atómica una cantidad reservada al stock de un producto
+     * @param id El id del producto al que se le devuelve el stock
+     * @param quantity Cantidad que se quiere devolver, debe ser mayor a 0
+     */
+
+    void release(Integer id, Integer quantity);
+
+    /**
+     * Escribe en el disco los cambios de stock que todavía estén solo en memoria, si el repositorio guarda el stock
+     * El registro de carritos lo llama antes de guardar cada grupo de cambios, así toda reserva de un carrito
+     * guardado ya está en el stock guardado
+     * @throws IOException si no se pudo escribir el stock
+     */
+
+    void flushStock() throws IOException;
 }
@@ -0,0 +1,564 @@
+package service.products;
+
+import model.Product;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Índice invertido sobre el nombre y la descripción de los productos de una versión del catálogo
+ * Cada palabra (en minúsculas y sin tildes) apunta a la lista de posiciones de los productos que la contienen,
+ * así una búsqueda solo recorre las listas de las palabras buscadas y no todo el catálogo
+ *
+ * Una búsqueda devuelve los productos que contienen todas las palabras de la consulta, aceptando para cada palabra:
+ * la palabra exacta, una palabra que empieza con ella (solo la última, para buscar mientras se escribe)
+ * o una palabra con un error de tipeo (una letra de más, de menos, cambiada o dos letras vecinas invertidas)
+ * Los resultados se ordenan por puntaje: coincidencia exacta antes que prefijo y prefijo antes que error de tipeo,
+ * una palabra del nombre vale el doble que una de la descripción y a igual puntaje va primero el de menor posición
+ *
+ * Solo se recorren las listas de la palabra de la consulta con menos resultados, las demás palabras se comprueban
+ * sobre las palabras de cada candidato, que también se guardan por producto
+ *
+ * Los errores de tipeo se buscan con variantes por borrado: de cada palabra del catálogo se guardan los hashes
+ * de las palabras que resultan de borrarle una letra, buscar la consulta y sus variantes en esa tabla da los
+ * candidatos, que después se confirman comparando las palabras. Las palabras cortas o con números (códigos)
+ * solo se buscan exactas o por prefijo
+ */
+
+public final class ProductSearchIndex {
+
+    private static final int EXACT = 4;
+    private static final int PREFIX = 2;
+    private static final int TYPO = 1;
+    private static final int MIN_TYPO_LENGTH = 4;
+    private static final int MAX_QUERY_TOKENS = 8;
+
+    private final List<Product> products;
+    private final String[] terms;
+    private final int[][] postings;
+    private final int[] productTermsStart;
+    private final int[] productTerms;
+    private final long[] deletions;
+    private final ConcurrentLinkedQueue<Scratch> scratches = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Palabras del índice que coinciden con una palabra de la consulta
+     * Las que empiezan con ella forman un rango continuo porque las palabras están ordenadas
+     */
+
+    private record TokenMatch(int exact, int prefixFrom, int prefixTo, int[] typos, long cost) {
+
+        int weight(int termId) {
+            if (termId == exact) {
+                return EXACT;
+            }
+            if (termId >= prefixFrom && termId < prefixTo) {
+                return PREFIX;
+            }
+            for (int typo : typos) {
+                if (typo == termId) {
+                    return TYPO;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Construye el índice de una versión del catálogo
+     * @param products Productos de la versión, la lista no debe volver a modificarse
+     */
+
+    public ProductSearchIndex(List<Product> products) {
+        this.products = products;
+
+        // Primero cada palabra recibe un número provisional, después se ordenan y se renumeran
+        Map<String, Integer> provisional = new HashMap<>();
+        List<String> provisionalTerms = new ArrayList<>();
+        this.productTermsStart = new int[products.size() + 1];
+        IntArray forward = new IntArray();
+        for (int position = 0; position < products.size(); position++) {
+            productTermsStart[position] = forward.size;
+            Product product = products.get(position);
+            addTerms(product.getName(), true, provisional, provisionalTerms, forward);
+            addTerms(product.getDescription(), false, provisional, provisionalTerms, forward);
+        }
+        productTermsStart[products.size()] = forward.size;
+        this.productTerms = forward.toArray();
+
+        Integer[] order = new Integer[provisionalTerms.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> provisionalTerms.get(a).compareTo(provisionalTerms.get(b)));
+        int[] termIdOf = new int[order.length];
+        this.terms = new String[order.length];
+        for (int termId = 0; termId < order.length; termId++) {
+            termIdOf[order[termId]] = termId;
+            terms[termId] = provisionalTerms.get(order[termId]);
+        }
+
+        int[] counts = new int[terms.length];
+        for (int i = 0; i < productTerms.length; i++) {
+            int termId = termIdOf[productTerms[i] >>> 1];
+            productTerms[i] = termId << 1 | (productTerms[i] & 1);
+            counts[termId]++;
+        }
+        this.postings = new int[terms.length][];
+        for (int termId = 0; termId < terms.length; termId++) {
+            postings[termId] = new int[counts[termId]];
+            counts[termId] = 0;
+        }
+        for (int position = 0; position < products.size(); position++) {
+            for (int i = productTermsStart[position]; i < productTermsStart[position + 1]; i++) {
+                int termId = productTerms[i] >>> 1;
+                int[] posting = postings[termId];
+                int size = counts[termId];
+                if (size > 0 && posting[size - 1] >>> 1 == position) {
+                    posting[size - 1] |= productTerms[i] & 1;
+                } else {
+                    posting[size] = position << 1 | (productTerms[i] & 1);
+                    counts[termId] = size + 1;
+                }
+            }
+        }
+        for (int termId = 0; termId < terms.length; termId++) {
+            if (counts[termId] < postings[termId].length) {
+                postings[termId] = Arrays.copyOf(postings[termId], counts[termId]);
+            }
+        }
+
+        LongArray variants = new LongArray();
+        for (int termId = 0; termId < terms.length; termId++) {
+            String term = terms[termId];
+            if (typoTolerant(term)) {
+                for (int i = 0; i < term.length(); i++) {
+                    variants.add(key(deleteAt(term, i).hashCode(), termId));
+                }
+            }
+        }
+        this.deletions = variants.toSortedArray();
+    }
+
+    /**
+     * Busca productos por su nombre y descripción
+     * @param query Palabras buscadas
+     * @param limit Cantidad máxima de resultados
+     * @return Productos encontrados, del más relevante al menos relevante
+     */
+
+    public List<Product> search(String query, int limit) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        if (tokens.size() > MAX_QUERY_TOKENS) {
+            tokens = tokens.subList(0, MAX_QUERY_TOKENS);
+        }
+
+        TokenMatch[] matches = new TokenMatch[tokens.size()];
+        int driver = 0;
+        for (int i = 0; i < matches.length; i++) {
+            matches[i] = match(tokens.get(i), i == matches.length - 1);
+            if (matches[i].cost() == 0) {
+                return List.of();
+            }
+            if (matches[i].cost() < matches[driver].cost()) {
+                driver = i;
+            }
+        }
+
+        Scratch scratch = borrowScratch();
+        try {
+            int candidates = collect(matches[driver], scratch);
+            int found = 0;
+            for (int i = 0; i < candidates; i++) {
+                int position = scratch.touched[i];
+                int score = scratch.scores[position];
+                scratch.scores[position] = 0;
+                for (int t = 0; t < matches.length && score > 0; t++) {
+                    if (t != driver) {
+                        int other = scoreInProduct(matches[t], position);
+                        score = other == 0 ? 0 : score + other;
+                    }
+                }
+                if (score > 0) {
+                    scratch.touched[found] = position;
+                    scratch.found[found] = score;
+                    found++;
+                }
+            }
+            return top(scratch, found, limit, matches.length * EXACT * 2);
+        } finally {
+            scratches.add(scratch);
+        }
+    }
+
+    private TokenMatch match(String token, boolean prefix) {
+        int exact = Arrays.binarySearch(terms, token);
+        long cost = exact >= 0 ? postings[exact].length : 0;
+
+        int prefixFrom = exact >= 0 ? exact + 1 : -exact - 1;
+        int prefixTo = prefixFrom;
+        if (prefix) {
+            while (prefixTo < terms.length && terms[prefixTo].startsWith(token)) {
+                cost += postings[prefixTo].length;
+                prefixTo++;
+            }
+        }
+
+        int[] typos = new int[0];
+        if (typoTolerant(token)) {
+            IntArray candidates = new IntArray();
+            typoCandidates(token, candidates);
+            IntArray kept = new IntArray();
+            for (int i = 0; i < candidates.size; i++) {
+                int termId = candidates.values[i];
+                if (termId != exact && (termId < prefixFrom || termId >= prefixTo)) {
+                    kept.add(termId);
+                    cost += postings[termId].length;
+                }
+            }
+            typos = kept.toArray();
+        }
+        return new TokenMatch(exact, prefixFrom, prefixTo, typos, cost);
+    }
+
+    /**
+     * Junta las posiciones de los productos que coinciden con una palabra, con el mejor puntaje de cada una
+     * @return Cantidad de posiciones distintas, guardadas en scratch.touched
+     */
+
+    private int collect(TokenMatch match, Scratch scratch) {
+        scratch.ensure(products.size(), (int) Math.min(match.cost(), products.size()));
+        int touched = 0;
+        if (match.exact() >= 0) {
+            touched = collect(postings[match.exact()], EXACT, scratch, touched);
+        }
+        for (int termId = match.prefixFrom(); termId < match.prefixTo(); termId++) {
+            touched = collect(postings[termId], PREFIX, scratch, touched);
+        }
+        for (int termId : match.typos()) {
+            touched = collect(postings[termId], TYPO, scratch, touched);
+        }
+        return touched;
+    }
+
+    private static int collect(int[] posting, int weight, Scratch scratch, int touched) {
+        for (int entry : posting) {
+            int position = entry >>> 1;
+            int score = (entry & 1) == 1 ? weight * 2 : weight;
+            int previous = scratch.scores[position];
+            if (previous == 0) {
+                scratch.touched[touched++] = position;
+            }
+            if (score > previous) {
+                scratch.scores[position] = (byte) score;
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * Mejor puntaje de una palabra de la consulta entre las palabras de un producto, 0 si no coincide ninguna
+     */
+
+    private int scoreInProduct(TokenMatch match, int position) {
+        int best = 0;
+        for (int i = productTermsStart[position]; i < productTermsStart[position + 1]; i++) {
+            int weight = match.weight(productTerms[i] >>> 1);
+            if (weight > 0) {
+                best = Math.max(best, (productTerms[i] & 1) == 1 ? weight * 2 : weight);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Elige los mejores resultados sin ordenar todos los candidatos: como los puntajes son pocos valores
+     * se cuentan por puntaje para saber desde qué puntaje entran, y entre los del último puntaje que entra
+     * se eligen los de menor posición
+     */
+
+    private List<Product> top(Scratch scratch, int found, int limit, int maxScore) {
+        int[] countByScore = new int[maxScore + 1];
+        for (int i = 0; i < found; i++) {
+            countByScore[scratch.found[i]]++;
+        }
+        int threshold = maxScore;
+        int above = 0;
+        while (threshold > 0 && above + countByScore[threshold] < limit) {
+            above += countByScore[threshold];
+            threshold--;
+        }
+        int fromThreshold = Math.min(limit - above, countByScore[Math.max(threshold, 0)]);
+
+        // Las posiciones se recorren en el orden en que se juntaron, no en orden creciente,
+        // por eso en el último puntaje se guardan las menores con un montículo
+        long[] selected = new long[above + fromThreshold];
+        int size = 0;
+        int[] smallest = new int[fromThreshold];
+        int heapSize = 0;
+        for (int i = 0; i < found; i++) {
+            int score = scratch.found[i];
+            int position = scratch.touched[i];
+            if (score > threshold) {
+                selected[size++] = rank(score, position);
+            } else if (score == threshold && fromThreshold > 0) {
+                if (heapSize < fromThreshold) {
+                    heapSize = pushMax(smallest, heapSize, position);
+                } else if (position < smallest[0]) {
+                    replaceMax(smallest, heapSize, position);
+                }
+            }
+        }
+        for (int i = 0; i < heapSize; i++) {
+            selected[size++] = rank(threshold, smallest[i]);
+        }
+
+        Arrays.sort(selected, 0, size);
+        Product[] result = new Product[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = products.get(Integer.MAX_VALUE - (int) selected[size - 1 - i]);
+        }
+        return List.of(result);
+    }
+
+    private static long rank(int score, int position) {
+        return key(score, Integer.MAX_VALUE - position);
+    }
+
+    private static int pushMax(int[] heap, int size, int value) {
+        int child = size;
+        heap[child] = value;
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            if (heap[parent] >= heap[child]) {
+                break;
+            }
+            swap(heap, parent, child);
+            child = parent;
+        }
+        return size + 1;
+    }
+
+    private static void replaceMax(int[] heap, int size, int value) {
+        heap[0] = value;
+        int parent = 0;
+        while (true) {
+            int largest = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+            if (left < size && heap[left] > heap[largest]) {
+                largest = left;
+            }
+            if (right < size && heap[right] > heap[largest]) {
+                largest = right;
+            }
+            if (largest == parent) {
+                return;
+            }
+            swap(heap, parent, largest);
+            parent = largest;
+        }
+    }
+
+    private static void swap(int[] values, int i, int j) {
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    /**
+     * Palabras del índice a un error de tipeo de la palabra buscada
+     */
+
+    private void typoCandidates(String token, IntArray candidates) {
+        collectVariants(token.hashCode(), token, candidates);
+        for (int i = 0; i < token.length(); i++) {
+            String deleted = deleteAt(token, i);
+            int termId = Arrays.binarySearch(terms, deleted);
+            if (termId >= 0 && !candidates.contains(termId)) {
+                candidates.add(termId);
+            }
+            collectVariants(deleted.hashCode(), token, candidates);
+        }
+    }
+
+    private void collectVariants(int hash, String token, IntArray candidates) {
+        int index = Arrays.binarySearch(deletions, key(hash, 0));
+        for (int i = index >= 0 ? index : -index - 1; i < deletions.length && (int) (deletions[i] >>> 32) == hash; i++) {
+            int termId = (int) deletions[i];
+            if (!candidates.contains(termId) && withinOneEdit(token, terms[termId])) {
+                candidates.add(termId);
+            }
+        }
+    }
+
+    private Scratch borrowScratch() {
+        Scratch scratch = scratches.poll();
+        return scratch != null ? scratch : new Scratch();
+    }
+
+    /**
+     * True si las palabras son iguales o se diferencian por una letra de más, de menos, cambiada,
+     * o por dos letras vecinas invertidas
+     */
+
+    static boolean withinOneEdit(String a, String b) {
+        int lengthDifference = a.length() - b.length();
+        if (Math.abs(lengthDifference) > 1) {
+            return false;
+        }
+        int start = 0;
+        while (start < a.length() && start < b.length() && a.charAt(start) == b.charAt(start)) {
+            start++;
+        }
+        if (lengthDifference == 0) {
+            if (start == a.length()) {
+                return true;
+            }
+            if (a.regionMatches(start + 1, b, start + 1, a.length() - start - 1)) {
+                return true;
+            }
+            return start + 1 < a.length()
+                    && a.charAt(start) == b.charAt(start + 1)
+                    && a.charAt(start + 1) == b.charAt(start)
+                    && a.regionMatches(start + 2, b, start + 2, a.length() - start - 2);
+        }
+        String longer = lengthDifference > 0 ? a : b;
+        String shorter = lengthDifference > 0 ? b : a;
+        return longer.regionMatches(start + 1, shorter, start, shorter.length() - start);
+    }
+
+    /**
+     * Separa un texto en palabras en minúsculas y sin tildes
+     */
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (!token.isEmpty()) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (!token.isEmpty()) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    private static void addTerms(String text, boolean inName, Map<String, Integer> provisional,
+                                 List<String> provisionalTerms, IntArray forward) {
+        for (String term : tokenize(text)) {
+            Integer id = provisional.get(term);
+            if (id == null) {
+                id = provisionalTerms.size();
+                provisional.put(term, id);
+                provisionalTerms.add(term);
+            }
+            forward.add(id << 1 | (inName ? 1 : 0));
+        }
+    }
+
+    private static boolean typoTolerant(String term) {
+        if (term.length() < MIN_TYPO_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < term.length(); i++) {
+            if (Character.isDigit(term.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String deleteAt(String term, int index) {
+        return term.substring(0, index) + term.substring(index + 1);
+    }
+
+    private static long key(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Arreglos de trabajo de una búsqueda, se reutilizan entre búsquedas para no crearlos cada vez
+     * scores queda siempre en 0 al terminar, cada búsqueda limpia solo las posiciones que tocó
+     */
+
+    private static final class Scratch {
+        private byte[] scores = new byte[0];
+        private int[] touched = new int[0];
+        private int[] found = new int[0];
+
+        void ensure(int products, int candidates) {
+            if (scores.length < products) {
+                scores = new byte[products];
+            }
+            if (touched.length < candidates) {
+                touched = new int[Math.max(candidates, touched.length * 2)];
+                found = new int[touched.length];
+            }
+        }
+    }
+
+    private static final class IntArray {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        boolean contains(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class LongArray {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toSortedArray() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.parallelSort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package service.products;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.IntConsumer;
+
+/**
+ * Columna de stock del catálogo, guarda el stock de todos los productos en arreglos int[] indexados por una posición densa
+ * En vez de un Integer dentro de cada producto, el stock queda contiguo en memoria: revisarlo no crea objetos,
+ * recorrer todo el catálogo es un recorrido secuencial y los cambios se hacen con compareAndSet sin candados
+ * La columna está dividida en páginas de tamaño fijo, crecer solo agrega páginas y nunca copia las existentes,
+ * así las operaciones atómicas que estén en curso nunca se pierden
+ * Cuando el stock de una posición pasa por 0 (se agota o vuelve a haber) se avisa al observador de disponibilidad,
+ * los cambios que no pasan por 0 no tienen ningún costo extra
+ */
+
+public class StockColumn {
+
+    private static final VarHandle ELEMENT = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private static final int PAGE_SHIFT = 14;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private volatile int[][] pages = new int[0][];
+    private volatile int size;
+    private volatile IntConsumer availabilityListener;
+
+    /**
+     * Indica a quién avisar cuando el stock de una posición pasa por 0
+     * @param listener Recibe la posición cuyo stock se agotó o volvió a estar disponible, null para no avisar
+     */
+
+    public void setAvailabilityListener(IntConsumer listener) {
+        this.availabilityListener = listener;
+    }
+
+    /**
+     * Cantidad de posiciones reservadas en la columna
+     */
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reserva una nueva posición al final de la columna, solo un hilo a la vez puede agregar posiciones
+     * @param stock Stock inicial de la posición
+     * @return Posición asignada
+     */
+
+    public int add(int stock) {
+        int slot = size;
+        int page = slot >>> PAGE_SHIFT;
+        int[][] current = pages;
+        if (page == current.length) {
+            int[][] grown = new int[page + 1][];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            grown[page] = new int[PAGE_SIZE];
+            current = grown;
+            pages = grown;
+        }
+        ELEMENT.setVolatile(current[page], slot & PAGE_MASK, stock);
+        size = slot + 1;
+        return slot;
+    }
+
+    public int get(int slot) {
+        return (int) ELEMENT.getVolatile(page(slot), slot & PAGE_MASK);
+    }
+
+    public void set(int slot, int stock) {
+        int previous = (int) ELEMENT.getAndSet(page(slot), slot & PAGE_MASK, stock);
+        crossed(slot, previous, stock);
+    }
+
+    public boolean compareAndSet(int slot, int expected, int stock) {
+        if (!ELEMENT.compareAndSet(page(slot), slot & PAGE_MASK, expected, stock)) {
+            return false;
+        }
+        crossed(slot, expected, stock);
+        return true;
+    }
+
+    /**
+     * Descuenta una cantidad del stock solo si alcanza, sin bloquear a otros hilos
+     * @param slot Posición del producto
+     * @param quantity Cantidad que se quiere descontar
+     * @return True si se descontó, false si no había stock suficiente
+     */
+
+    public boolean tryDecrement(int slot, int quantity) {
+        int[] page = page(slot);
+        int index = slot & PAGE_MASK;
+        while (true) {
+            int stock = (int) ELEMENT.getVolatile(page, index);
+            if (stock < quantity) {
+                return false;
+            }
+            if (ELEMENT.compareAndSet(page, index, stock, stock - quantity)) {
+                crossed(slot, stock, stock - quantity);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Suma una cantidad al stock de forma atómica
+     * @return Stock resultante
+     */
+
+    public int increment(int slot, int quantity) {
+        int previous = (int) ELEMENT.getAndAdd(page(slot), slot & PAGE_MASK, quantity);
+        crossed(slot, previous, previous + quantity);
+        return previous + quantity;
+    }
+
+    /**
+     * Suma una diferencia al stock sin dejarlo por debajo de 0, se usa al recargar el catálogo
+     * cuando cambia el stock del archivo, así se conservan las reservas hechas mientras tanto
+     * @return Stock resultante
+     */
+
+    public int adjust(int slot, int delta) {
+        int[] page = page(slot);
+        int index = slot & PAGE_MASK;
+        while (true) {
+            int stock = (int) ELEMENT.getVolatile(page, index);
+            int adjusted = (int) Math.max(0L, (long) stock + delta);
+            if (ELEMENT.compareAndSet(page, index, stock, adjusted)) {
+                crossed(slot, stock, adjusted);
+                return adjusted;
+            }
+        }
+    }
+
+    private void crossed(int slot, int previous, int stock) {
+        if ((previous > 0) != (stock > 0)) {
+            IntConsumer listener = availabilityListener;
+            if (listener != null) {
+                listener.accept(slot);
+            }
+        }
+    }
+
+    private int[] page(int slot) {
+        if (slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException(slot);
+        }
+        return pages[slot >>> PAGE_SHIFT];
+    }
+}
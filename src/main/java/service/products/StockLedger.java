@@ -0,0 +1,357 @@
+package service.products;
+
+import util.IntHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Registro persistente del stock de una StockColumn, permite que el stock sobreviva a los reinicios
+ * Las reservas no escriben nada: siguen siendo un compareAndSet sobre la columna y nunca esperan al disco
+ * Un hilo en segundo plano compara cada cierto tiempo la columna con el último stock guardado y agrega al registro
+ * un lote con el stock actual de los productos que cambiaron, con un solo fsync por lote
+ * Cuando el registro crece demasiado se guarda un punto de control con el stock de todos los productos
+ * y se empieza un registro nuevo, así al reiniciar solo se lee el punto de control y los lotes posteriores
+ *
+ * Archivos: stock-N.checkpoint (stock de todos los productos al empezar el registro N) y stock-N.log (lotes)
+ * Cada lote se guarda como: cantidad de pares, pares (id del producto, stock), CRC32 de los pares
+ * Se guarda el stock resultante y no la diferencia, así un lote aplicado dos veces da el mismo resultado
+ * Si el proceso se detiene sin cerrar el registro, se pierden como mucho los cambios del último intervalo
+ *
+ * El registro de carritos llama a flush antes de guardar cada grupo de cambios, como las reservas se hacen antes
+ * de registrar el cambio del carrito, todo carrito recuperado tiene su reserva en el stock recuperado
+ * Lo único que se puede perder son devoluciones de stock posteriores al último lote, así que después de una caída
+ * el stock puede quedar por debajo del real pero nunca se vende dos veces la misma unidad
+ */
+
+public final class StockLedger implements AutoCloseable {
+
+    private static final int CHECKPOINT_MAGIC = 0x53544B43; // "STKC"
+    private static final String PREFIX = "stock-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final String TEMPORARY_NAME = "stock.tmp";
+    private static final long CHECKPOINT_BYTES = 4L << 20;
+    private static final int UNSAVED = Integer.MIN_VALUE;
+
+    private final Path directory;
+    private final StockColumn column;
+
+    private volatile int[] idsBySlot;
+    private int[] persisted;
+    private final ScheduledExecutorService flusher;
+    private FileChannel log;
+    private long generation;
+    private ByteBuffer batch = ByteBuffer.allocate(1 << 16);
+
+    /**
+     * Abre el registro del directorio indicado, carga en la columna el último stock guardado y empieza
+     * a guardar los cambios en segundo plano
+     * @param directory Directorio del registro, se crea si no existe
+     * @param column Columna de stock que se quiere guardar
+     * @param idsBySlot Id del producto de cada posición de la columna, -1 para las posiciones que no se guardan
+     * @param intervalMillis Tiempo entre lotes en milisegundos
+     * @throws IOException si no se puede leer o abrir el registro
+     */
+
+    public StockLedger(Path directory, StockColumn column, int[] idsBySlot, long intervalMillis) throws IOException {
+        this.directory = directory;
+        this.column = column;
+        this.idsBySlot = idsBySlot;
+        this.persisted = new int[idsBySlot.length];
+        Files.createDirectories(directory);
+
+        restore();
+        for (int slot = 0; slot < idsBySlot.length; slot++) {
+            persisted[slot] = column.get(slot);
+        }
+        checkpoint();
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "stock-ledger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushInBackground, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cambia los productos que se guardan, se usa cuando el catálogo se recarga y agrega o quita productos
+     * Las posiciones nuevas se guardan en el siguiente lote
+     * @param idsBySlot Id del producto de cada posición de la columna, -1 para las posiciones que no se guardan
+     */
+
+    public void track(int[] idsBySlot) {
+        this.idsBySlot = idsBySlot;
+    }
+
+    /**
+     * Guarda el stock de los productos que cambiaron desde el último lote
+     * Lo usan el hilo del registro y el registro de carritos antes de cada grupo de cambios
+     */
+
+    public synchronized void flush() throws IOException {
+        int[] ids = trackedIds();
+        batch.clear();
+        batch.putInt(0);
+        int count = 0;
+        for (int slot = 0; slot < ids.length; slot++) {
+            if (ids[slot] < 0) {
+                continue;
+            }
+            int current = column.get(slot);
+            if (current == persisted[slot]) {
+                continue;
+            }
+            if (batch.remaining() < 12) {
+                batch = grow(batch);
+            }
+            batch.putInt(ids[slot]).putInt(current);
+            persisted[slot] = current;
+            count++;
+        }
+        if (count == 0) {
+            return;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(batch.array(), 4, batch.position() - 4);
+        batch.putInt((int) crc.getValue());
+        batch.putInt(0, count);
+        batch.flip();
+        while (batch.hasRemaining()) {
+            log.write(batch);
+        }
+        log.force(false);
+
+        if (log.size() >= CHECKPOINT_BYTES) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Guarda el stock de todos los productos y empieza un registro nuevo, después borra los archivos anteriores
+     * El punto de control se escribe con el stock ya guardado, así coincide exactamente con lo que tenía el registro
+     */
+
+    private synchronized void checkpoint() throws IOException {
+        int[] ids = trackedIds();
+        long next = generation + 1;
+        Path temporary = directory.resolve(TEMPORARY_NAME);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            int count = 0;
+            for (int slot = 0; slot < ids.length; slot++) {
+                if (ids[slot] >= 0 && persisted[slot] != UNSAVED) {
+                    count++;
+                }
+            }
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(count);
+            for (int slot = 0; slot < ids.length; slot++) {
+                if (ids[slot] >= 0 && persisted[slot] != UNSAVED) {
+                    out.writeInt(ids[slot]);
+                    out.writeInt(persisted[slot]);
+                }
+            }
+            out.flush();
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, path(next, CHECKPOINT_SUFFIX), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        FileChannel nextLog = FileChannel.open(path(next, LOG_SUFFIX), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (log != null) {
+            log.close();
+        }
+        log = nextLog;
+        generation = next;
+
+        for (Path old : files(directory)) {
+            if (generationOf(old) < generation) {
+                Files.deleteIfExists(old);
+            }
+        }
+    }
+
+    /**
+     * Carga en la columna el stock del último punto de control y de los lotes posteriores
+     * Los productos que no aparecen en el registro se quedan con el stock del catálogo
+     */
+
+    private void restore() throws IOException {
+        long latest = 0;
+        for (Path file : files(directory)) {
+            if (file.getFileName().toString().endsWith(CHECKPOINT_SUFFIX)) {
+                latest = Math.max(latest, generationOf(file));
+            }
+        }
+        if (latest == 0) {
+            return;
+        }
+        generation = latest;
+
+        IntHashMap<Integer> stockById = new IntHashMap<>();
+        readCheckpoint(path(latest, CHECKPOINT_SUFFIX), stockById);
+        Path latestLog = path(latest, LOG_SUFFIX);
+        if (Files.exists(latestLog)) {
+            readLog(latestLog, stockById);
+        }
+
+        for (int slot = 0; slot < idsBySlot.length; slot++) {
+            Integer saved = idsBySlot[slot] < 0 ? null : stockById.get(idsBySlot[slot]);
+            if (saved != null) {
+                column.set(slot, saved);
+            }
+        }
+    }
+
+    private static void readCheckpoint(Path file, IntHashMap<Integer> stockById) throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(stream, 1 << 16), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != CHECKPOINT_MAGIC) {
+                throw new IOException("El archivo " + file + " no es un punto de control de stock válido");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                stockById.put(in.readInt(), in.readInt());
+            }
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("El punto de control de stock " + file + " está dañado");
+            }
+        }
+    }
+
+    /**
+     * Aplica los lotes válidos del registro, un lote incompleto o dañado al final se descarta
+     */
+
+    private static void readLog(Path file, IntHashMap<Integer> stockById) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                byte[] pairs;
+                try {
+                    int count = in.readInt();
+                    if (count <= 0 || count > 1 << 24) {
+                        return;
+                    }
+                    pairs = in.readNBytes(count * 8);
+                    if (pairs.length != count * 8) {
+                        return;
+                    }
+                    CRC32 crc = new CRC32();
+                    crc.update(pairs);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        return;
+                    }
+                } catch (EOFException e) {
+                    return;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(pairs);
+                while (buffer.hasRemaining()) {
+                    stockById.put(buffer.getInt(), buffer.getInt());
+                }
+            }
+        }
+    }
+
+    /**
+     * Detiene el hilo del registro, guarda los últimos cambios y deja un punto de control
+     */
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            flush();
+            checkpoint();
+            log.close();
+        }
+    }
+
+    private void flushInBackground() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("No se pudo guardar el stock: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Productos que se guardan, si la columna creció se agregan posiciones todavía sin guardar
+     */
+
+    private int[] trackedIds() {
+        int[] ids = idsBySlot;
+        if (persisted.length < ids.length) {
+            int previous = persisted.length;
+            persisted = Arrays.copyOf(persisted, ids.length);
+            Arrays.fill(persisted, previous, ids.length, UNSAVED);
+        }
+        return ids;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private Path path(long generation, String suffix) {
+        return directory.resolve(String.format("%s%012d%s", PREFIX, generation, suffix));
+    }
+
+    private static List<Path> files(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(LOG_SUFFIX) || name.endsWith(CHECKPOINT_SUFFIX)) {
+                    files.add(path);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static long generationOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.indexOf('.')));
+    }
+}
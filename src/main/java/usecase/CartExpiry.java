@@ -0,0 +1,88 @@
+package usecase;
+
+import model.Order;
+import util.TimingWheel;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vence los carritos abiertos que llevan demasiado tiempo sin usarse y devuelve su stock al catálogo
+ * Cada carrito se programa una sola vez en una rueda de tiempo para el momento en que vencería si nadie lo usa,
+ * usar el carrito solo actualiza su último uso, no toca la rueda
+ * Cuando llega su turno se revisa el último uso: si el carrito se usó mientras tanto se vuelve a programar
+ * para su nuevo vencimiento, si no, se vence junto con los demás carritos vencidos en ese mismo tick
+ */
+
+public class CartExpiry implements AutoCloseable {
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SLOTS = 512;
+
+    private final ShoppingCartUseCase shoppingCartUseCase;
+    private final long idleMillis;
+    private final TimingWheel<Order> wheel;
+    private final ScheduledExecutorService ticker;
+
+    /**
+     * @param shoppingCartUseCase Caso de uso que maneja los carritos que se vencen
+     * @param idleTimeout Tiempo sin uso después del cual un carrito abierto vence
+     */
+
+    CartExpiry(ShoppingCartUseCase shoppingCartUseCase, Duration idleTimeout) {
+        this.shoppingCartUseCase = shoppingCartUseCase;
+        this.idleMillis = idleTimeout.toMillis();
+        long tick = Math.min(TICK_MILLIS, Math.max(1, idleMillis / 4));
+        this.wheel = new TimingWheel<>(tick, WHEEL_SLOTS, System.currentTimeMillis());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "cart-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ticker.scheduleWithFixedDelay(this::expireIdleCarts, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Empieza a vigilar un carrito, se programa para vencer cuando pase el tiempo de inactividad desde su último uso
+     */
+
+    void track(Order order) {
+        wheel.schedule(order, order.getLastTouch() + idleMillis);
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdown();
+    }
+
+    private void expireIdleCarts() {
+        try {
+            long now = System.currentTimeMillis();
+            List<Order> idle = new ArrayList<>();
+            wheel.advance(now, order -> {
+                if (!order.isOpen()) {
+                    return;
+                }
+                long deadline = order.getLastTouch() + idleMillis;
+                if (deadline > now) {
+                    wheel.schedule(order, deadline);
+                } else {
+                    idle.add(order);
+                }
+            });
+            if (idle.isEmpty()) {
+                return;
+            }
+
+            for (Order touched : shoppingCartUseCase.expire(idle, now - idleMillis)) {
+                track(touched);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error al vencer carritos inactivos: " + e.getMessage());
+        }
+    }
+}
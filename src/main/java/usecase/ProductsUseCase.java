@@ -1,6 +1,7 @@
 package usecase;
 
 import model.Product;
+import service.products.CatalogView;
 import service.products.InFileProductManager;
 import service.products.ProductRepository;
 
@@ -19,10 +20,40 @@ public class ProductsUseCase {
 
     /**
      * Obtiene todos los productos extraidos del archivo CSV
+     * El repositorio ya devuelve una versión del catálogo que no cambia, por eso no hace falta copiarla
      * @return Una lista con todos los productos extraidos del archivo CSV
      */
     public List<Product> getStockProducts(){
-        return productRepository.getProduct().stream()
-                .toList();
+        return productRepository.getProduct();
+    }
+
+    /**
+     * Obtiene la versión vigente del catálogo, permite recorrerlo por páginas o con un cursor sin copiarlo
+     * @return Vista inmutable del catálogo
+     */
+    public CatalogView getCatalog() {
+        return productRepository.getCatalog();
+    }
+
+    /**
+     * Busca productos por su nombre y descripción, acepta el comienzo de una palabra y errores de tipeo
+     * @param query Palabras buscadas
+     * @param limit Cantidad máxima de resultados
+     * @return Productos encontrados, del más relevante al menos relevante
+     */
+    public List<Product> searchProducts(String query, int limit) {
+        return productRepository.search(query, limit);
+    }
+
+    /**
+     * Filtra productos por rango de precio, por ejemplo los que tienen stock y cuestan menos de 500.000
+     * @param minPrice Precio mínimo en centavos, incluido
+     * @param maxPrice Precio máximo en centavos, incluido
+     * @param inStockOnly True para devolver solo productos con stock
+     * @param limit Cantidad máxima de productos
+     * @return Productos ordenados por precio de menor a mayor
+     */
+    public List<Product> filterProducts(long minPrice, long maxPrice, boolean inStockOnly, int limit) {
+        return productRepository.findByPrice(minPrice, maxPrice, inStockOnly, limit);
     }
 }
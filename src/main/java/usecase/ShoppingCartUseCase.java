@@ -8,12 +8,18 @@ import service.orders.OrderRepository;
 import service.products.InFileProductManager;
 import service.products.ProductRepository;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Este caso de uso maneja todas las operaciones relacionadas con el carrito de compras
  * y los pedidos realizados, permitiendo en un futuro guardar los pedidos en base de datos, o una lista fácilmente.
+ * Todas las operaciones reciben el id del carrito, así varios clientes pueden usar la misma instancia al mismo tiempo,
+ * las operaciones sobre un mismo carrito se ejecutan de una en una y las de carritos distintos nunca se bloquean entre sí
  */
 
 public class ShoppingCartUseCase {
@@ -27,27 +33,82 @@ public class ShoppingCartUseCase {
     private final OrderRepository orderRepository;
 
     /**
-     *  Inicializa el carrito de compras con una nueva orden
+     * Id del carrito seleccionado por la aplicación de consola, las operaciones sin id de carrito trabajan sobre él
      */
 
-    private Order order;
+    private volatile String currentCartId;
+
+    /**
+     * Vencimiento de carritos inactivos, null mientras no se active con expireIdleCarts
+     */
+
+    private volatile CartExpiry expiry;
+
+    /**
+     * Línea de una operación en lote sobre un carrito
+     * @param productId Id del producto
+     * @param quantity Cantidad que se quiere agregar, o sumar (restar si es negativa) en una actualización
+     */
+
+    public record CartLine(Integer productId, Integer quantity) {
+    }
 
     /**
      * Constructor que nos vas a permitir conectarnos a las funcionalidades desde "application"
      */
 
     public ShoppingCartUseCase() {
-        this.productRepository = InFileProductManager.getInstance();
-        this.orderRepository = InMemoryOrderManager.getInstance();
+        this(InFileProductManager.getInstance(), InMemoryOrderManager.getInstance());
+    }
+
+    /**
+     * Constructor que permite indicar los repositorios que se quieren usar
+     * @param productRepository Repositorio de productos
+     * @param orderRepository Repositorio de carritos
+     */
+
+    public ShoppingCartUseCase(ProductRepository productRepository, OrderRepository orderRepository) {
+        this.productRepository = productRepository;
+        this.orderRepository = orderRepository;
     }
 
     /**
-     * Obtiene todos los carritos que se han realizado en el sistema
-     * @return Lista con todos los carritos que se han realizado en el sistema
+     * Obtiene los carritos abiertos del sistema, los cerrados se consultan con getClosedOrders
+     * @return Lista de solo lectura con los carritos abiertos del sistema
      */
 
     public List<Order> getCarts() {
-        return new ArrayList<>(this.orderRepository.getOrders());
+        return this.orderRepository.getOrders();
+    }
+
+    /**
+     * Obtiene una página de los carritos abiertos, en el orden en el que se crearon
+     * @param from Posición del primer carrito, empezando en 0
+     * @param limit Cantidad máxima de carritos
+     * @return Lista de solo lectura con los carritos de la página
+     */
+
+    public List<Order> getCarts(int from, int limit) {
+        return this.orderRepository.getOrders(from, limit);
+    }
+
+    /**
+     * Obtiene los carritos cerrados del historial, en el orden en el que se cerraron
+     * @param from Posición del primer carrito, empezando en 0
+     * @param limit Cantidad máxima de carritos
+     * @return Copias de solo lectura de los carritos cerrados
+     */
+
+    public List<Order> getClosedOrders(int from, int limit) {
+        return this.orderRepository.getClosedOrders(from, limit);
+    }
+
+    /**
+     * @return Cantidad de carritos cerrados en el historial
+     */
+
+    public int countClosedOrders() {
+        return this.orderRepository.countClosedOrders();
     }
 
     /**
@@ -56,7 +117,37 @@ public class ShoppingCartUseCase {
      */
 
     public Order getCart() {
-        return this.order;
+        return getCart(this.currentCartId);
+    }
+
+    /**
+     * Obtiene un carrito de compras por su id
+     * @param cartId Id del carrito
+     * @return Carrito encontrado, o null en el caso de no encontrarlo
+     */
+
+    public Order getCart(String cartId) {
+        Order order = this.orderRepository.getOrderById(cartId);
+        if (order != null) {
+            order.touch();
+        }
+        return order;
+    }
+
+    /**
+     * Descuento del carrito: el que se aplicó si ya está cerrado, o el que recibiría si se cerrara ahora
+     * @param cartId Id del carrito
+     * @return Descuento en centavos, 0 si el carrito no existe
+     */
+
+    public long getDiscount(String cartId) {
+        Order order = getCart(cartId);
+        if (order == null) {
+            return 0;
+        }
+        synchronized (order) {
+            return order.getCheckedOut() ? order.getDiscount() : this.orderRepository.discountFor(order);
+        }
     }
 
     /**
@@ -65,7 +156,32 @@ public class ShoppingCartUseCase {
      */
 
     public Order newCart() {
-        return this.orderRepository.newOrder();
+        Order order = this.orderRepository.newOrder();
+        CartExpiry current = this.expiry;
+        if (current != null) {
+            current.track(order);
+        }
+        return order;
+    }
+
+    /**
+     * Activa el vencimiento de los carritos abiertos que no se usan durante el tiempo indicado
+     * Al vencer, el carrito se elimina del sistema y todo su stock reservado vuelve al catálogo
+     * @param idleTimeout Tiempo sin uso después del cual un carrito abierto vence
+     * @return Vencimiento activo, se detiene al cerrarlo
+     */
+
+    public synchronized CartExpiry expireIdleCarts(Duration idleTimeout) {
+        if (this.expiry == null) {
+            CartExpiry created = new CartExpiry(this, idleTimeout);
+            for (Order order : this.orderRepository.getOrders()) {
+                if (order.isOpen()) {
+                    created.track(order);
+                }
+            }
+            this.expiry = created;
+        }
+        return this.expiry;
     }
 
     /**
@@ -76,69 +192,185 @@ public class ShoppingCartUseCase {
 
     public boolean setCart(String id) {
         Order newOrder = this.orderRepository.getOrderById(id);
-        if (this.orderRepository.getOrders().isEmpty() || newOrder == null) {
+        if (newOrder == null) {
             return false;
         }
 
-        this.order = newOrder;
+        this.currentCartId = newOrder.getId();
         return true;
     }
 
+    /**
+     * Agrega un producto al carrito de compras actual, el que se estableció con setCart
+     * @param productId Id del producto que se quiere agregar al carrito
+     * @param quantity Cantidad que se quiere agregar al carrito
+     * @return True si el producto se ha agregado correctamente, false en caso contrario
+     */
+
+    public boolean addProductToCart(Integer productId, Integer quantity) {
+        return addProductToCart(this.currentCartId, productId, quantity);
+    }
 
     /**
      * Agrega un producto al carrito de compras, si existe en el sistema y tiene stock disponible
+     * El stock se reserva antes de agregarlo, así dos carritos no pueden llevarse las mismas unidades
+     * @param cartId Id del carrito al que se quiere agregar el producto
      * @param productId Id del producto que se quiere agregar al carrito
      * @param quantity Cantidad que se quiere agregar al carrito
      * @return True si el producto se ha agregado correctamente, false en caso contrario
      */
 
-    public boolean addProductToCart(Integer productId, Integer quantity) {
+    public boolean addProductToCart(String cartId, Integer productId, Integer quantity) {
         Product product = this.productRepository.findProductById(productId);
-        if (product == null || quantity <= 0 || product.getStock() < quantity) {
+        if (product == null || quantity == null || quantity <= 0) {
             return false;
         }
 
-        if (this.orderRepository.addProductToOrder(this.order, product, quantity)) {
-            this.productRepository.updateStock(productId, product.getStock() - quantity);
-            return true;
+        Order order = openCart(cartId);
+        if (order == null) {
+            return false;
+        }
+
+        synchronized (order) {
+            if (closedForChanges(order)) {
+                return false;
+            }
+
+            if (!this.productRepository.tryReserve(productId, quantity)) {
+                return false;
+            }
+
+            boolean added = false;
+            try {
+                added = this.orderRepository.addProductToOrder(order, product, quantity);
+                return added;
+            } finally {
+                if (!added) {
+                    this.productRepository.release(productId, quantity);
+                }
+            }
         }
-        return false;
     }
 
     /**
-     * Elimina un producto del carrito de compras, si existe en el sistema y tiene stock disponible
+     * Elimina un producto del carrito de compras actual, devolviendo al stock la cantidad que tenía en el carrito
      * @param productId Id del producto que se quiere eliminar del carrito
      * @return True si el producto se ha eliminado correctamente, false en caso contrario
      */
 
     public boolean removeProductFromCart(Integer productId) {
-        Product product = this.productRepository.findProductById(productId);
-        if (this.orderRepository.removeProductFromOrder(this.order, product)) {
-            this.productRepository.updateStock(productId, product.getStock() + this.order.getOrderItems().stream()
-                    .filter(p -> p.getProduct().getId().equals(productId))
-                    .mapToInt(OrderItem::getQuantity)
-                    .findFirst()
-                    .orElse(0)
-            );
+        return removeProductFromCart(this.currentCartId, productId);
+    }
 
-            return true;
+    /**
+     * Elimina un producto del carrito de compras, devolviendo al stock la cantidad que tenía en el carrito
+     * @param cartId Id del carrito que se quiere modificar
+     * @param productId Id del producto que se quiere eliminar del carrito
+     * @return True si el producto se ha eliminado correctamente, false en caso contrario
+     */
+
+    public boolean removeProductFromCart(String cartId, Integer productId) {
+        Order order = openCart(cartId);
+        if (order == null) {
+            return false;
+        }
+
+        synchronized (order) {
+            OrderItem item = productId != null ? order.findItem(productId) : null;
+            if (closedForChanges(order) || item == null) {
+                return false;
+            }
+
+            // Se usa el producto del carrito, así también se puede quitar uno que ya no está en el catálogo
+            int quantity = item.getQuantity();
+            if (this.orderRepository.removeProductFromOrder(order, item.getProduct())) {
+                this.productRepository.release(productId, quantity);
+                return true;
+            }
+            return false;
         }
-        return false;
     }
 
     /**
-     * Actualiza la cantidad de un producto en el carrito de compras, si existe en el sistema y tiene stock disponible
+     * Actualiza la cantidad de un producto en el carrito de compras actual
      * @param itemId Id del producto que se quiere actualizar
-     * @param quantity Cantidad que se quiere asignar al producto
+     * @param quantity Cantidad que se quiere sumar (o restar si es negativa) al producto
      * @return True si el producto se ha actualizado correctamente, false en caso contrario
      */
 
     public boolean updateProductInCart(Integer itemId, Integer quantity) {
-        if (this.orderRepository.updateOrder(order, itemId, quantity)) {
-            this.productRepository.updateStock(itemId, Math.max(0, (this.productRepository.findProductById(itemId).getStock() - quantity)));
-            return true;
+        return updateProductInCart(this.currentCartId, itemId, quantity);
+    }
+
+    /**
+     * Actualiza la cantidad de un producto en el carrito de compras, si existe en el sistema y tiene stock disponible
+     * Las cantidades positivas se reservan del stock y las negativas devuelven al stock lo que se quitó del carrito
+     * @param cartId Id del carrito que se quiere modificar
+     * @param itemId Id del producto que se quiere actualizar
+     * @param quantity Cantidad que se quiere sumar (o restar si es negativa) al producto
+     * @return True si el producto se ha actualizado correctamente, false en caso contrario
+     */
+
+    public boolean updateProductInCart(String cartId, Integer itemId, Integer quantity) {
+        Order order = openCart(cartId);
+        if (order == null || quantity == null) {
+            return false;
         }
-        return false;
+
+        synchronized (order) {
+            int inCart = quantityInCart(order, itemId);
+            if (closedForChanges(order) || inCart == 0) {
+                return false;
+            }
+
+            if (quantity > 0) {
+                if (!this.productRepository.tryReserve(itemId, quantity)) {
+                    return false;
+                }
+                boolean updated = false;
+                try {
+                    updated = this.orderRepository.updateOrder(order, itemId, quantity);
+                    return updated;
+                } finally {
+                    if (!updated) {
+                        this.productRepository.release(itemId, quantity);
+                    }
+                }
+            }
+
+            if (this.orderRepository.updateOrder(order, itemId, quantity)) {
+                if (quantity < 0) {
+                    this.productRepository.release(itemId, Math.min(-quantity, inCart));
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Agrega varios productos al carrito de compras en un solo paso, o ninguno si alguno no se puede agregar
+     * Las líneas del mismo producto se suman, cada producto se busca una sola vez y el carrito se bloquea
+     * una sola vez para todo el lote; si falta stock de algún producto se devuelve lo que ya se había reservado
+     * @param cartId Id del carrito al que se quieren agregar los productos
+     * @param lines Productos y cantidades que se quieren agregar, todas positivas
+     * @return True si se agregaron todos los productos, false en caso contrario sin cambiar el carrito
+     */
+
+    public boolean addProductsToCart(String cartId, List<CartLine> lines) {
+        return applyLines(cartId, lines, true);
+    }
+
+    /**
+     * Actualiza las cantidades de varios productos del carrito en un solo paso, o ninguna si alguna no se puede aplicar
+     * Igual que updateProductInCart, las cantidades positivas se reservan del stock y las negativas lo devuelven
+     * @param cartId Id del carrito que se quiere modificar
+     * @param lines Productos del carrito y la cantidad que se quiere sumar (o restar si es negativa) a cada uno
+     * @return True si se actualizaron todos los productos, false en caso contrario sin cambiar el carrito
+     */
+
+    public boolean updateProductsInCart(String cartId, List<CartLine> lines) {
+        return applyLines(cartId, lines, false);
     }
 
     /**
@@ -147,27 +379,255 @@ public class ShoppingCartUseCase {
      */
 
     public Order closeOrder() {
-        Order oldOrder = this.orderRepository.closeOrder(this.order);
-        this.order = this.orderRepository.newOrder();
+        Order oldOrder = closeOrder(this.currentCartId);
+        this.currentCartId = newCart().getId();
         return oldOrder;
     }
 
     /**
-     * Cancela el carrito de compras actual
+     * Cierra un carrito de compras y lo devuelve
+     * @param cartId Id del carrito que se quiere cerrar
+     * @return Carrito de compras cerrado, o null si no existe, está vacío o ya estaba cerrado
+     */
+
+    public Order closeOrder(String cartId) {
+        Order order = openCart(cartId);
+        if (order == null) {
+            return null;
+        }
+        return this.orderRepository.closeOrder(order);
+    }
+
+    /**
+     * Cancela el carrito de compras actual, vacía el carrito y devuelve al stock todos sus productos
      * @return True si el carrito se ha cancelado correctamente, false en caso contrario
      */
 
     public boolean cancelOrder() {
-        if (order.getOrderItems().isEmpty()) {
+        return cancelOrder(this.currentCartId);
+    }
+
+    /**
+     * Cancela un carrito de compras, devolviendo al stock todos sus productos
+     * @param cartId Id del carrito que se quiere cancelar
+     * @return True si el carrito se ha cancelado correctamente, false en caso contrario
+     */
+
+    public boolean cancelOrder(String cartId) {
+        Order order = openCart(cartId);
+        if (order == null) {
+            return false;
+        }
+
+        synchronized (order) {
+            if (closedForChanges(order) || order.getOrderItems().isEmpty()) {
+                return false;
+            }
+            // El stock se devuelve después de vaciar el carrito, si no se puede vaciar las unidades siguen reservadas
+            List<OrderItem> items = new ArrayList<>(order.getOrderItems());
+            if (!this.orderRepository.cancelOrder(order)) {
+                return false;
+            }
+            for (OrderItem item : items) {
+                this.productRepository.release(item.getProduct().getId(), item.getQuantity());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Aplica un lote de líneas sobre un carrito con todo o nada
+     * Primero se suman las líneas por producto y se validan, después, con el carrito bloqueado, se reservan
+     * todas las cantidades positivas; si una falla, o el carrito no se puede guardar, se liberan y el carrito no cambia
+     * @param add True para agregar productos, false para actualizar productos que ya están en el carrito
+     */
+
+    private boolean applyLines(String cartId, List<CartLine> lines, boolean add) {
+        if (lines == null || lines.isEmpty()) {
+            return false;
+        }
+
+        // Si la suma de las líneas de un producto no cabe en un int se rechaza todo el lote
+        Map<Integer, Integer> merged = new LinkedHashMap<>();
+        try {
+            for (CartLine line : lines) {
+                if (line == null || line.productId() == null || line.quantity() == null || (add && line.quantity() <= 0)) {
+                    return false;
+                }
+                merged.merge(line.productId(), line.quantity(), Math::addExact);
+            }
+        } catch (ArithmeticException e) {
+            return false;
+        }
+
+        int size = merged.size();
+        int[] productIds = new int[size];
+        int[] deltas = new int[size];
+        Product[] products = new Product[size];
+        int index = 0;
+        for (Map.Entry<Integer, Integer> entry : merged.entrySet()) {
+            productIds[index] = entry.getKey();
+            deltas[index] = entry.getValue();
+            if (add) {
+                products[index] = this.productRepository.findProductById(entry.getKey());
+                if (products[index] == null) {
+                    return false;
+                }
+            }
+            index++;
+        }
+
+        Order order = openCart(cartId);
+        if (order == null) {
             return false;
         }
-        for (OrderItem item : order.getOrderItems()) {
-            Product product = this.productRepository.findProductById(item.getProduct().getId());
-            if (product != null) {
-                this.productRepository.updateStock(product.getId(), (product.getStock() + item.getQuantity()));
+
+        synchronized (order) {
+            if (closedForChanges(order)) {
+                return false;
+            }
+
+            int[] inCart = new int[size];
+            for (int i = 0; i < size; i++) {
+                OrderItem item = order.findItem(productIds[i]);
+                if (item != null) {
+                    inCart[i] = item.getQuantity();
+                    products[i] = item.getProduct();
+                } else if (!add) {
+                    return false;
+                }
+            }
+
+            for (int i = 0; i < size; i++) {
+                if (deltas[i] > 0 && !this.productRepository.tryReserve(productIds[i], deltas[i])) {
+                    releaseReserved(productIds, deltas, i);
+                    return false;
+                }
+            }
+
+            List<OrderItem> items = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                items.add(new OrderItem(products[i], Math.max(0, inCart[i] + deltas[i])));
             }
+            boolean applied = false;
+            try {
+                applied = this.orderRepository.setOrderItems(order, items);
+            } finally {
+                if (!applied) {
+                    releaseReserved(productIds, deltas, size);
+                }
+            }
+            if (!applied) {
+                return false;
+            }
+
+            for (int i = 0; i < size; i++) {
+                if (deltas[i] < 0) {
+                    this.productRepository.release(productIds[i], Math.min(-deltas[i], inCart[i]));
+                }
+            }
+            return true;
         }
+    }
 
-        return this.orderRepository.cancelOrder(this.order);
+    /**
+     * Devuelve al stock las cantidades positivas que se reservaron antes de la posición indicada
+     */
+
+    private void releaseReserved(int[] productIds, int[] deltas, int count) {
+        for (int i = 0; i < count; i++) {
+            if (deltas[i] > 0) {
+                this.productRepository.release(productIds[i], deltas[i]);
+            }
+        }
+    }
+
+    /**
+     * Vence un grupo de carritos inactivos: los elimina del sistema y devuelve su stock al catálogo
+     * Cada carrito se vuelve a revisar con su candado, así nunca se vence uno que se esté usando en ese momento
+     * Si no se puede vaciar o eliminar un carrito vuelve a quedar abierto y se programa otra vez, así nunca queda
+     * vencido con su stock reservado; el stock de los carritos que sí se vaciaron se devuelve junto al final,
+     * una sola vez por producto
+     * @param idle Carritos que llevan el tiempo de inactividad sin usarse
+     * @param idleBefore Solo se vencen los carritos cuyo último uso es anterior a este momento
+     * @return Carritos que se usaron mientras tanto o que no se pudieron vencer, hay que volver a programarlos
+     */
+
+    List<Order> expire(List<Order> idle, long idleBefore) {
+        List<Order> pending = new ArrayList<>();
+        Map<Integer, Integer> released = new HashMap<>();
+        try {
+            for (Order order : idle) {
+                synchronized (order) {
+                    if (closedForChanges(order)) {
+                        continue;
+                    }
+                    if (order.getLastTouch() > idleBefore) {
+                        pending.add(order);
+                        continue;
+                    }
+                    // Un checkout que empezó sin el candado gana el carrito
+                    if (!order.expire()) {
+                        continue;
+                    }
+
+                    try {
+                        List<OrderItem> items = new ArrayList<>(order.getOrderItems());
+                        if (!items.isEmpty() && this.orderRepository.cancelOrder(order)) {
+                            for (OrderItem item : items) {
+                                released.merge(item.getProduct().getId(), item.getQuantity(), Integer::sum);
+                            }
+                        }
+                        this.orderRepository.removeOrder(order.getId());
+                    } catch (RuntimeException e) {
+                        System.err.println("No se pudo vencer el carrito " + order.getId() + ": " + e.getMessage());
+                        order.abortExpire();
+                        pending.add(order);
+                    }
+                }
+            }
+        } finally {
+            released.forEach(this.productRepository::release);
+        }
+        return pending;
+    }
+
+    /**
+     * Busca un carrito que todavía no se ha cerrado y registra que se está usando
+     * El estado se vuelve a revisar dentro del bloque sincronizado de cada operación
+     * @param cartId Id del carrito
+     * @return Carrito encontrado, o null si no existe, ya está cerrado o venció
+     */
+
+    private Order openCart(String cartId) {
+        Order order = this.orderRepository.getOrderById(cartId);
+        if (order == null || closedForChanges(order)) {
+            return null;
+        }
+        order.touch();
+        return order;
+    }
+
+    /**
+     * Un carrito en checkout, cerrado o vencido ya no acepta cambios
+     */
+
+    private static boolean closedForChanges(Order order) {
+        return !order.isOpen();
+    }
+
+    /**
+     * Obtiene la cantidad de un producto que hay en un carrito
+     * @param order Carrito en el que se busca el producto
+     * @param productId Id del producto
+     * @return Cantidad en el carrito, 0 si no está en el carrito
+     */
+
+    private int quantityInCart(Order order, Integer productId) {
+        if (productId == null) {
+            return 0;
+        }
+        OrderItem item = order.findItem(productId);
+        return item == null ? 0 : item.getQuantity();
     }
 }
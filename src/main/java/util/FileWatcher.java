@@ -0,0 +1,102 @@
+package util;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Vigila un archivo en un hilo en segundo plano y lo vuelve a cargar cada vez que cambia
+ * Se vigila el directorio del archivo, así también se detecta cuando se reemplaza con un rename
+ * Un mismo guardado suele generar varios eventos, se espera un momento a que terminen y se carga una sola vez
+ * Si la carga falla se informa el error y se sigue vigilando, quien carga decide qué hacer con lo que ya tenía
+ */
+
+public final class FileWatcher implements AutoCloseable {
+
+    private static final long SETTLE_MILLIS = 200;
+
+    /**
+     * Carga del archivo vigilado
+     */
+
+    @FunctionalInterface
+    public interface Loader {
+        void load(Path file) throws IOException;
+    }
+
+    private final Thread thread;
+
+    private FileWatcher(Thread thread) {
+        this.thread = thread;
+    }
+
+    /**
+     * Empieza a vigilar un archivo
+     * @param file Archivo que se quiere vigilar
+     * @param threadName Nombre del hilo que lo vigila
+     * @param description Qué contiene el archivo, se usa en los mensajes de error
+     * @param loader Carga el archivo cada vez que cambia
+     * @return Vigilancia activa, se detiene al cerrarla
+     */
+
+    public static FileWatcher start(Path file, String threadName, String description, Loader loader) {
+        Path absolute = file.toAbsolutePath();
+        Thread thread = new Thread(() -> watchLoop(absolute, description, loader), threadName);
+        thread.setDaemon(true);
+        thread.start();
+        return new FileWatcher(thread);
+    }
+
+    /**
+     * Deja de vigilar el archivo, lo que ya se cargó se sigue usando
+     */
+
+    @Override
+    public void close() {
+        thread.interrupt();
+    }
+
+    private static void watchLoop(Path file, String description, Loader loader) {
+        Path fileName = file.getFileName();
+        try (WatchService watchService = file.getFileSystem().newWatchService()) {
+            file.getParent().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (!Thread.currentThread().isInterrupted()) {
+                if (!changed(watchService.take(), fileName)) {
+                    continue;
+                }
+
+                Thread.sleep(SETTLE_MILLIS);
+                WatchKey pending;
+                while ((pending = watchService.poll()) != null) {
+                    changed(pending, fileName);
+                }
+
+                try {
+                    loader.load(file);
+                } catch (IOException | IllegalArgumentException e) {
+                    System.err.println("Error al recargar " + description + ": " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Error al vigilar " + description + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean changed(WatchKey key, Path fileName) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (fileName.equals(event.context()) || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+}
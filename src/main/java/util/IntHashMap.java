@@ -0,0 +1,178 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Mapa con llaves primitivas int y direccionamiento abierto (sondeo lineal)
+ * Evita crear un Integer por cada llave y un nodo por cada entrada como lo hace HashMap,
+ * por eso las búsquedas sobre catálogos grandes son O(1) y no generan basura
+ * No es seguro para hilos, quien lo use debe sincronizar las escrituras
+ * @param <V> Tipo de los valores almacenados
+ */
+
+public class IntHashMap<V> {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+    private int threshold;
+
+    public IntHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize Cantidad de entradas esperadas, evita redimensionar mientras se llena el mapa
+     */
+
+    public IntHashMap(int expectedSize) {
+        int capacity = tableSizeFor((int) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR));
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Busca el valor asociado a una llave
+     * @param key Llave que se quiere buscar
+     * @return Valor encontrado, o null en el caso de no encontrarlo
+     */
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int index = indexOf(key);
+        return index < 0 ? null : (V) values[index];
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Asocia un valor a una llave, reemplazando el anterior si existía
+     * @param key Llave del valor
+     * @param value Valor que se quiere guardar, no puede ser null
+     * @return Valor anterior asociado a la llave, o null si no existía
+     */
+
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("El valor no puede ser null");
+        }
+
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                V old = (V) values[index];
+                values[index] = value;
+                return old;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        if (++size > threshold) {
+            resize(values.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Elimina una llave del mapa, desplazando hacia atrás las entradas que la siguen
+     * para no dejar marcas de borrado que alarguen las búsquedas
+     * @param key Llave que se quiere eliminar
+     * @return Valor que estaba asociado a la llave, o null si no existía
+     */
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+
+        V old = (V) values[index];
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (values[next] != null) {
+            int home = hash(keys[next]) & mask;
+            // La entrada se puede mover al hueco si su posición ideal no está entre el hueco y ella
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        values[hole] = null;
+        size--;
+        return old;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private int indexOf(int key) {
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int index = hash(oldKeys[i]) & mask;
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Mezcla los bits de la llave, los ids de producto suelen ser consecutivos
+     * y sin mezclar se agruparían en la misma zona de la tabla
+     */
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int n = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        return Math.max(n, 2);
+    }
+}
@@ -0,0 +1,83 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Rueda de tiempo (hashed timing wheel) para vencer muchos elementos con muy poco costo
+ * El tiempo se divide en ticks y cada tick corresponde a una casilla de la rueda, programar un elemento solo lo
+ * agrega a la cola de la casilla de su vencimiento, sin ordenar nada ni crear una tarea por elemento
+ * Un único hilo avanza la rueda y revisa solo las casillas de los ticks que pasaron
+ * Los vencimientos más lejanos que una vuelta completa quedan en su casilla hasta la vuelta que corresponda
+ */
+
+public final class TimingWheel<T> {
+
+    private final long tickMillis;
+    private final int mask;
+    private final List<ConcurrentLinkedQueue<Entry<T>>> slots;
+    private volatile long currentTick;
+
+    private record Entry<T>(T item, long deadline) {
+    }
+
+    /**
+     * @param tickMillis Duración de cada tick en milisegundos, es la precisión de los vencimientos
+     * @param slots Cantidad de casillas, se redondea a una potencia de 2
+     * @param nowMillis Momento actual en milisegundos
+     */
+
+    public TimingWheel(long tickMillis, int slots, long nowMillis) {
+        int size = Integer.highestOneBit(Math.max(slots - 1, 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.mask = size - 1;
+        this.slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            this.slots.add(new ConcurrentLinkedQueue<>());
+        }
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Programa un elemento para que venza en el momento indicado, lo puede llamar cualquier hilo
+     * @param item Elemento
+     * @param deadlineMillis Momento del vencimiento en milisegundos
+     */
+
+    public void schedule(T item, long deadlineMillis) {
+        // Se redondea hacia arriba, así cuando se revisa la casilla el vencimiento ya pasó
+        long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+        slots.get((int) (tick & mask)).add(new Entry<>(item, deadlineMillis));
+    }
+
+    /**
+     * Avanza la rueda hasta el momento indicado, solo la debe llamar un hilo a la vez
+     * @param nowMillis Momento actual en milisegundos
+     * @param expired Recibe cada elemento que venció
+     */
+
+    public void advance(long nowMillis, Consumer<T> expired) {
+        long target = nowMillis / tickMillis;
+        long from = currentTick + 1;
+        // Si pasó más de una vuelta alcanza con revisar cada casilla una vez
+        long first = Math.max(from, target - mask);
+        for (long tick = first; tick <= target; tick++) {
+            ConcurrentLinkedQueue<Entry<T>> slot = slots.get((int) (tick & mask));
+            int pending = slot.size();
+            for (int i = 0; i < pending; i++) {
+                Entry<T> entry = slot.poll();
+                if (entry == null) {
+                    break;
+                }
+                if (entry.deadline() <= nowMillis) {
+                    expired.accept(entry.item());
+                } else {
+                    slot.add(entry);
+                }
+            }
+        }
+        currentTick = Math.max(currentTick, target);
+    }
+}